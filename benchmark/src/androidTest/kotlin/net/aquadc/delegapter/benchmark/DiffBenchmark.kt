@@ -0,0 +1,50 @@
+package net.aquadc.delegapter.benchmark
+
+import androidx.benchmark.junit4.BenchmarkRule
+import androidx.benchmark.junit4.measureRepeated
+import net.aquadc.delegapter.DiffDelegate
+import net.aquadc.delegapter.MutableDelegapter
+import net.aquadc.delegapter.NullListUpdateCallback
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.Parameterized
+import java.util.Random
+
+/**
+ * [MutableDelegapter.replace] after a server reorder which moved 1% of items:
+ * keyed diff against [androidx.recyclerview.widget.DiffUtil] path.
+ * Each iteration diffs in alternating directions between the same two lists.
+ * @author Mike Gorünóv
+ */
+@RunWith(Parameterized::class)
+class DiffBenchmark(private val size: Int) {
+
+    @get:Rule val benchmarkRule = BenchmarkRule()
+
+    private val before = List(size) { "row $it" }
+    private val after = ArrayList(before).also { list ->
+        val random = Random(42)
+        repeat(size / 100) { list.add(random.nextInt(size), list.removeAt(random.nextInt(size))) }
+    }
+
+    @Test fun keyed(): Unit = replace(rowsByKey)
+
+    @Test fun diffUtil(): Unit = replace(rowsByEquality)
+
+    private fun replace(delegate: DiffDelegate<String>) {
+        val data = MutableDelegapter(NullListUpdateCallback, initialItemCapacity = size)
+        data.addAll(delegate, before)
+        var next: List<String> = after
+        benchmarkRule.measureRepeated {
+            val items = next
+            data.replace(initialItemCapacity = size) { addAll(delegate, items) }
+            next = if (items === after) before else after
+        }
+    }
+
+    companion object {
+        @JvmStatic @Parameterized.Parameters(name = "size={0}")
+        fun sizes(): List<Int> = listOf(10_000, 100_000)
+    }
+}
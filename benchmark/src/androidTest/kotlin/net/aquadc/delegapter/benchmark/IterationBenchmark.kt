@@ -0,0 +1,66 @@
+package net.aquadc.delegapter.benchmark
+
+import androidx.benchmark.junit4.BenchmarkRule
+import androidx.benchmark.junit4.measureRepeated
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import net.aquadc.delegapter.Delegate
+import net.aquadc.delegapter.forEach
+import net.aquadc.delegapter.forEachIndexed
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.util.Random
+
+/**
+ * Reading (delegate, item) pairs at random positions, like binding does, and all at once, like decorations do.
+ * @author Mike Gorünóv
+ */
+@RunWith(AndroidJUnit4::class)
+class IterationBenchmark {
+
+    @get:Rule val benchmarkRule = BenchmarkRule()
+
+    private val data = sections(SIZE)
+    private val positions = IntArray(SIZE).also { val random = Random(42); it.indices.forEach { i -> it[i] = random.nextInt(SIZE) } }
+
+    @Test fun randomAccess() {
+        var sink = 0
+        benchmarkRule.measureRepeated {
+            for (i in positions) sink += consume(data.delegateAt(i), data.itemAt(i))
+        }
+        check(sink != 42)
+    }
+
+    // one delegate lookup per run
+    @Test fun forEachIndexed() {
+        var sink = 0
+        benchmarkRule.measureRepeated {
+            data.forEachIndexed { i, delegate, item -> sink += i + consume(delegate, item) }
+        }
+        check(sink != 42)
+    }
+
+    @Test fun forEach() {
+        var sink = 0
+        benchmarkRule.measureRepeated {
+            data.forEach { delegate, item -> sink += consume(delegate, item) }
+        }
+        check(sink != 42)
+    }
+
+    // one delegate lookup per item, as forEachIndexed did before iterating by runs
+    @Test fun indexedLoop() {
+        var sink = 0
+        benchmarkRule.measureRepeated {
+            for (i in 0 until data.size) sink += i + consume(data.delegateAt(i), data.itemAt(i))
+        }
+        check(sink != 42)
+    }
+
+    private fun consume(delegate: Delegate<*>, item: Any?): Int =
+        if (delegate === rows && item != null) 1 else 0
+
+    private companion object {
+        private const val SIZE = 10_000
+    }
+}
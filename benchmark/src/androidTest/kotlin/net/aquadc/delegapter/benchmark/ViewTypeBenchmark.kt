@@ -0,0 +1,48 @@
+package net.aquadc.delegapter.benchmark
+
+import androidx.benchmark.junit4.BenchmarkRule
+import androidx.benchmark.junit4.measureRepeated
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/**
+ * Cost of `getItemViewType` calls made by a layout pass:
+ * RecyclerView asks for each visible position in order, then the list scrolls by a screen.
+ * @author Mike Gorünóv
+ */
+@RunWith(AndroidJUnit4::class)
+class ViewTypeBenchmark {
+
+    @get:Rule val benchmarkRule = BenchmarkRule()
+
+    private val data = sections(SIZE)
+
+    // viewTypes cached in delegate runs
+    @Test fun viewTypeAt() {
+        var first = 0
+        var sink = 0
+        benchmarkRule.measureRepeated {
+            for (i in first until first + SCREEN) sink += data.viewTypeAt(i)
+            first = (first + SCREEN) % (SIZE - SCREEN)
+        }
+        check(sink != 42)
+    }
+
+    // a hash lookup per call, as viewTypeAt did before caching
+    @Test fun hashedLookup() {
+        var first = 0
+        var sink = 0
+        benchmarkRule.measureRepeated {
+            for (i in first until first + SCREEN) sink += data.peekViewTypeOf(data.delegateAt(i))
+            first = (first + SCREEN) % (SIZE - SCREEN)
+        }
+        check(sink != 42)
+    }
+
+    private companion object {
+        private const val SIZE = 10_000
+        private const val SCREEN = 24
+    }
+}
@@ -0,0 +1,29 @@
+package net.aquadc.delegapter.benchmark
+
+import android.view.ViewGroup
+import net.aquadc.delegapter.Delegate
+import net.aquadc.delegapter.DiffDelegate
+import net.aquadc.delegapter.MutableDelegapter
+import net.aquadc.delegapter.NullListUpdateCallback
+import net.aquadc.delegapter.diff
+
+// delegates which are never asked to create views in benchmarks
+
+internal val headers: Delegate<String> = { _: ViewGroup -> throw UnsupportedOperationException() }
+internal val rows: Delegate<String> = { _: ViewGroup -> throw UnsupportedOperationException() }
+internal val footers: Delegate<String> = { _: ViewGroup -> throw UnsupportedOperationException() }
+
+internal val rowsByEquality: DiffDelegate<String> = rows.diff(areItemsTheSame = { a, b -> a == b })
+internal val rowsByKey: DiffDelegate<String> = rows.diff(keyOf = { it })
+
+/**
+ * A feed of [size] items: sections of a header, 8 rows, and a footer.
+ */
+internal fun sections(size: Int): MutableDelegapter =
+    MutableDelegapter(NullListUpdateCallback, initialItemCapacity = size).apply {
+        for (i in 0 until size) when (i % 10) {
+            0 -> add(headers, "header $i")
+            9 -> add(footers, "footer $i")
+            else -> add(rows, "row $i")
+        }
+    }
@@ -0,0 +1,95 @@
+package net.aquadc.delegapter
+
+import androidx.recyclerview.widget.ListUpdateCallback
+
+/**
+ * Like [androidx.recyclerview.widget.BatchingListUpdateCallback], merges consecutive events of the same kind,
+ * and also understands that
+ * - removing or changing just inserted items needs no separate event,
+ * - a change without payload (full rebind) covers any later change within its range.
+ * Call [dispatchLastEvent] to flush.
+ * @author Mike Gorünóv
+ */
+internal class BatchingCallback(
+    private val target: ListUpdateCallback,
+) : ListUpdateCallback {
+
+    private var type = NONE
+    private var position = -1
+    private var count = -1
+    private var payload: Any? = null
+
+    override fun onInserted(position: Int, count: Int) {
+        if (type == INSERT && position >= this.position && position <= this.position + this.count) {
+            this.count += count
+            return
+        }
+        dispatchLastEvent()
+        set(INSERT, position, count, null)
+    }
+
+    override fun onRemoved(position: Int, count: Int) {
+        when {
+            type == REMOVE && this.position >= position && this.position <= position + count -> {
+                this.count += count
+                this.position = position
+            }
+            type == INSERT && position >= this.position && position + count <= this.position + this.count -> {
+                // removing what we've just inserted
+                this.count -= count
+                if (this.count == 0) type = NONE
+            }
+            else -> {
+                dispatchLastEvent()
+                set(REMOVE, position, count, null)
+            }
+        }
+    }
+
+    override fun onMoved(fromPosition: Int, toPosition: Int) {
+        dispatchLastEvent() // moves are not merged
+        target.onMoved(fromPosition, toPosition)
+    }
+
+    override fun onChanged(position: Int, count: Int, payload: Any?) {
+        val end = this.position + this.count
+        when {
+            type == INSERT && position >= this.position && position + count <= end ->
+                Unit // inserted items will be bound anyway
+            type == CHANGE && this.payload == null && position >= this.position && position + count <= end ->
+                Unit // already going to be fully rebound
+            type == CHANGE && this.payload === payload && position <= end && position + count >= this.position -> {
+                this.position = minOf(position, this.position)
+                this.count = maxOf(end, position + count) - this.position
+            }
+            else -> {
+                dispatchLastEvent()
+                set(CHANGE, position, count, payload)
+            }
+        }
+    }
+
+    fun dispatchLastEvent() {
+        when (type) {
+            INSERT -> target.onInserted(position, count)
+            REMOVE -> target.onRemoved(position, count)
+            CHANGE -> target.onChanged(position, count, payload)
+        }
+        type = NONE
+        payload = null
+    }
+
+    private fun set(type: Int, position: Int, count: Int, payload: Any?) {
+        this.type = type
+        this.position = position
+        this.count = count
+        this.payload = payload
+    }
+
+    private companion object {
+        private const val NONE = 0
+        private const val INSERT = 1
+        private const val REMOVE = 2
+        private const val CHANGE = 3
+    }
+}
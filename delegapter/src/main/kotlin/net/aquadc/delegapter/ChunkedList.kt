@@ -0,0 +1,309 @@
+package net.aquadc.delegapter
+
+import java.util.Arrays
+
+/**
+ * [MutableList] made of fixed-capacity blocks.
+ * Insertions and removals shift at most one block and the block table,
+ * so editing near the beginning of a long list costs the same as editing near its end.
+ * Block start positions are recomputed lazily, thus a series of edits near some cursor
+ * followed by reads near the same cursor don't walk the whole table.
+ * Blocks can be shared with a [copy][cowCopy] and get cloned on first write.
+ * @author Mike Gorünóv
+ */
+class ChunkedList<E> internal constructor(initialCapacity: Int) :
+    AbstractMutableList<E>(), RemoveRangeMutableList<E>, RandomAccess {
+
+    private var blocks: Array<Array<Any?>?> = arrayOfNulls(maxOf(4, initialCapacity / BLOCK + 1))
+    private var sizes: IntArray = IntArray(blocks.size)
+    private var starts: IntArray = IntArray(blocks.size)
+    private var owned: BooleanArray = BooleanArray(blocks.size) // false if a block is shared with a copy
+    private var blockCount = 0
+    private var validStarts = 0 // starts[0 until validStarts] are up to date
+    private var lastBlock = 0 // sequential access cache
+    private var _size = 0 // getterless access
+
+    override val size: Int
+        get() = _size
+
+    @Suppress("UNCHECKED_CAST")
+    override fun get(index: Int): E {
+        if (index !in 0 until _size) throw oob(index)
+        val b = blockAt(index)
+        return blocks[b]!![index - starts[b]] as E
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    override fun set(index: Int, element: E): E {
+        if (index !in 0 until _size) throw oob(index)
+        val b = blockAt(index)
+        val block = writable(b)
+        val i = index - starts[b]
+        val old = block[i]
+        block[i] = element
+        return old as E
+    }
+
+    override fun add(index: Int, element: E) {
+        if (index !in 0.._size) throw oob(index)
+        modCount++
+        var b: Int
+        var offset: Int
+        if (index == _size) {
+            if (blockCount == 0 || sizes[blockCount - 1] == BLOCK)
+                openBlocks(blockCount, 1).also { blocks[it] = arrayOfNulls(BLOCK); sizes[it] = 0; owned[it] = true }
+            b = blockCount - 1
+            offset = sizes[b]
+        } else {
+            b = blockAt(index)
+            offset = index - starts[b]
+            if (sizes[b] == BLOCK) {
+                val half = BLOCK / 2
+                splitAt(b, half)
+                if (offset >= half) {
+                    b++
+                    offset -= half
+                }
+            }
+        }
+        val block = writable(b)
+        System.arraycopy(block, offset, block, offset + 1, sizes[b] - offset)
+        block[offset] = element
+        sizes[b]++
+        _size++
+        invalidateAfter(b)
+    }
+
+    override fun addAll(index: Int, elements: Collection<E>): Boolean {
+        if (index !in 0.._size) throw oob(index)
+        val array = elements.toTypedArray<Any?>()
+        val count = array.size
+        if (count == 0) return false
+        modCount++
+
+        // make index a block boundary
+        var at = if (index == _size) blockCount else {
+            val b = blockAt(index)
+            val offset = index - starts[b]
+            if (offset == 0) b else { splitAt(b, offset); b + 1 }
+        }
+
+        var copied = 0
+        if (at > 0) { // top up the previous block to avoid leaving small ones around
+            val prev = at - 1
+            copied = minOf(BLOCK - sizes[prev], count)
+            System.arraycopy(array, 0, writable(prev), sizes[prev], copied)
+            sizes[prev] += copied
+            invalidateAfter(prev)
+        }
+        if (copied < count) {
+            at = openBlocks(at, (count - copied + BLOCK - 1) / BLOCK)
+            while (copied < count) {
+                val n = minOf(BLOCK, count - copied)
+                val block = arrayOfNulls<Any?>(BLOCK)
+                System.arraycopy(array, copied, block, 0, n)
+                blocks[at] = block
+                sizes[at] = n
+                owned[at] = true
+                at++
+                copied += n
+            }
+        }
+        _size += count
+        return true
+    }
+
+    override fun removeAt(index: Int): E {
+        val old = get(index)
+        removeRange(index, index + 1)
+        return old
+    }
+
+    override fun removeRange(fromIndex: Int, toIndex: Int) {
+        if (fromIndex < 0 || toIndex > _size || fromIndex > toIndex) throw oob(fromIndex, toIndex)
+        if (fromIndex == toIndex) return
+        modCount++
+
+        val first = blockAt(fromIndex)
+        var b = first
+        var offset = fromIndex - starts[b]
+        var remaining = toIndex - fromIndex
+        while (remaining > 0) {
+            val size = sizes[b]
+            val n = minOf(size - offset, remaining)
+            if (n < size) { // whole blocks will be dropped without clearing
+                val block = writable(b)
+                System.arraycopy(block, offset + n, block, offset, size - offset - n)
+                Arrays.fill(block, size - n, size, null)
+            }
+            sizes[b] = size - n
+            remaining -= n
+            offset = 0
+            b++
+        }
+        _size -= toIndex - fromIndex
+        invalidateAfter(first)
+        dropEmpty(first, b)
+    }
+
+    override fun clear() {
+        if (_size > 0) {
+            modCount++
+            Arrays.fill(blocks, 0, blockCount, null)
+            blockCount = 0
+            validStarts = 0
+            lastBlock = 0
+            _size = 0
+        }
+    }
+
+    /**
+     * Creates a copy sharing blocks with this list in `O(blocks)`.
+     * Both lists clone a shared block before writing into it.
+     * The copy has all block starts computed, thus reading it never writes anything but an `int` cache,
+     * and it can be read from several threads simultaneously.
+     */
+    internal fun cowCopy(): ChunkedList<E> {
+        if (blockCount > 0) blockAt(_size - 1) // validate all starts
+        val copy = ChunkedList<E>(-1)
+        copy.blocks = blocks.copyOf()
+        copy.sizes = sizes.copyOf()
+        copy.starts = starts.copyOf()
+        copy.owned = BooleanArray(blocks.size)
+        copy.blockCount = blockCount
+        copy.validStarts = validStarts
+        copy._size = _size
+        Arrays.fill(owned, 0, blockCount, false)
+        return copy
+    }
+
+    // internals
+
+    private fun writable(block: Int): Array<Any?> {
+        val array = blocks[block]!!
+        return if (owned[block]) array else array.copyOf().also {
+            blocks[block] = it
+            owned[block] = true
+        }
+    }
+
+    private fun blockAt(index: Int): Int {
+        val cached = lastBlock
+        if (cached < validStarts && index >= starts[cached] && index - starts[cached] < sizes[cached])
+            return cached
+
+        var b: Int
+        val lastValid = validStarts - 1
+        if (lastValid >= 0 && index < starts[lastValid] + sizes[lastValid]) {
+            var lo = 0
+            var hi = lastValid
+            while (lo < hi) { // find last block starting at or before index
+                val mid = (lo + hi + 1) ushr 1
+                if (starts[mid] <= index) lo = mid else hi = mid - 1
+            }
+            b = lo
+        } else { // walk forward fixing starts
+            if (lastValid < 0) {
+                starts[0] = 0
+                b = 0
+            } else {
+                b = lastValid
+            }
+            while (index >= starts[b] + sizes[b]) {
+                starts[b + 1] = starts[b] + sizes[b]
+                b++
+            }
+            validStarts = b + 1
+        }
+        lastBlock = b
+        return b
+    }
+
+    private fun invalidateAfter(block: Int) {
+        if (validStarts > block + 1) validStarts = block + 1
+    }
+
+    /**
+     * Moves elements of [block] starting from [offset] into a new block right after it.
+     */
+    private fun splitAt(block: Int, offset: Int) {
+        val src = writable(block)
+        val size = sizes[block]
+        val at = openBlocks(block + 1, 1)
+        val dst = arrayOfNulls<Any?>(BLOCK)
+        System.arraycopy(src, offset, dst, 0, size - offset)
+        Arrays.fill(src, offset, size, null)
+        blocks[at] = dst
+        owned[at] = true
+        sizes[at] = size - offset
+        sizes[block] = offset
+    }
+
+    /**
+     * Makes room for [count] blocks at [at] in the block table.
+     * @return [at]
+     */
+    private fun openBlocks(at: Int, count: Int): Int {
+        val needed = blockCount + count
+        if (needed > blocks.size) {
+            val newCapacity = maxOf(needed, blocks.size + (blocks.size shr 1))
+            blocks = blocks.copyOf(newCapacity)
+            sizes = sizes.copyOf(newCapacity)
+            starts = starts.copyOf(newCapacity)
+            owned = owned.copyOf(newCapacity)
+        }
+        System.arraycopy(blocks, at, blocks, at + count, blockCount - at)
+        System.arraycopy(sizes, at, sizes, at + count, blockCount - at)
+        System.arraycopy(owned, at, owned, at + count, blockCount - at)
+        blockCount = needed
+        if (validStarts > at) validStarts = at
+        lastBlock = 0
+        return at
+    }
+
+    /**
+     * Removes empty blocks in [[from], [to]) and merges neighbours which fit into a single block.
+     */
+    private fun dropEmpty(from: Int, to: Int) {
+        var w = from
+        for (b in from until to) if (sizes[b] > 0) {
+            blocks[w] = blocks[b]
+            sizes[w] = sizes[b]
+            owned[w] = owned[b]
+            w++
+        }
+        if (w < to) {
+            System.arraycopy(blocks, to, blocks, w, blockCount - to)
+            System.arraycopy(sizes, to, sizes, w, blockCount - to)
+            System.arraycopy(owned, to, owned, w, blockCount - to)
+            val newCount = blockCount - (to - w)
+            Arrays.fill(blocks, newCount, blockCount, null)
+            blockCount = newCount
+            if (validStarts > newCount) validStarts = newCount
+        }
+        lastBlock = 0
+        if (!mergeWithNext(from)) mergeWithNext(from - 1)
+    }
+
+    private fun mergeWithNext(block: Int): Boolean {
+        if (block < 0 || block + 1 >= blockCount || sizes[block] + sizes[block + 1] > BLOCK) return false
+        System.arraycopy(blocks[block + 1]!!, 0, writable(block), sizes[block], sizes[block + 1])
+        sizes[block] += sizes[block + 1]
+        System.arraycopy(blocks, block + 2, blocks, block + 1, blockCount - block - 2)
+        System.arraycopy(sizes, block + 2, sizes, block + 1, blockCount - block - 2)
+        System.arraycopy(owned, block + 2, owned, block + 1, blockCount - block - 2)
+        blocks[--blockCount] = null
+        invalidateAfter(block)
+        return true
+    }
+
+    private fun oob(index: Int) = // extracted rare path, don't bother JIT with StringBuilder chain
+        IndexOutOfBoundsException("$index ∉ [0, $_size)")
+
+    private fun oob(fromIndex: Int, toIndex: Int) =
+        IndexOutOfBoundsException("[$fromIndex, $toIndex) ⊄ [0, $_size)")
+
+    private companion object {
+        private const val BLOCK = 256
+    }
+}
@@ -0,0 +1,212 @@
+package net.aquadc.delegapter
+
+import androidx.recyclerview.widget.AdapterListUpdateCallback
+import androidx.recyclerview.widget.ListUpdateCallback
+import androidx.recyclerview.widget.RecyclerView
+
+/**
+ * Concatenation of child [MutableDelegapter]s (sections) shown by a single adapter.
+ * Sections share viewTypes, events of each one are translated to global positions.
+ * Section sizes are kept in a Fenwick tree, thus position lookups are `O(log sections)`.
+ * A section can be [collapsed][setCollapsed]: its items stay in place but are hidden from [target],
+ * e.g. a group header and a collapsible body are two adjacent sections.
+ * @author Mike Gorünóv
+ *
+ * @param target changes listener, typically adapter
+ * @param parent delegapter father to share viewTypes with
+ */
+class ConcatDelegapter(
+    private val target: ListUpdateCallback,
+    parent: MutableDelegapter? = null,
+) : DelegatedList {
+
+    constructor(target: RecyclerView.Adapter<*>, parent: MutableDelegapter? = null) :
+        this(AdapterListUpdateCallback(target), parent)
+
+    /**
+     * Holds viewTypes of all sections.
+     */
+    @JvmField val registry: MutableDelegapter = parent ?: MutableDelegapter(NullListUpdateCallback)
+
+    private val sections = ArrayList<Section>()
+    private var tree = IntArray(9) // Fenwick tree of section sizes, 1-based
+    private var _size = 0
+    private var located = 0 // position within section found by the last locate()
+
+    override val size: Int
+        get() = _size
+
+    val sectionCount: Int
+        get() = sections.size
+
+    fun section(index: Int): MutableDelegapter =
+        sections[index].data
+
+    /**
+     * Creates an empty section at [atIndex].
+     */
+    @JvmOverloads fun addSection(
+        atIndex: Int = sections.size, initialCapacity: Int = -1, chunkedStorage: Boolean = false,
+    ): MutableDelegapter {
+        val section = Section(atIndex)
+        section.data = MutableDelegapter(section, registry, initialItemCapacity = initialCapacity, chunkedStorage = chunkedStorage)
+        sections.add(atIndex, section)
+        reindex(atIndex + 1)
+        rebuild()
+        return section.data
+    }
+
+    fun isCollapsed(index: Int): Boolean =
+        sections[index].collapsed
+
+    /**
+     * Hides or shows all items of section at [index] with a single removal or insertion event.
+     * No items are copied, collapsed section can still be mutated.
+     */
+    fun setCollapsed(index: Int, collapsed: Boolean) {
+        val section = sections[index]
+        if (section.collapsed == collapsed) return
+        val offset = offsetOf(index)
+        section.collapsed = collapsed
+        val size = section.size
+        if (size == 0) return
+        if (collapsed) {
+            grow(index, -size)
+            target.onRemoved(offset, size)
+        } else {
+            grow(index, size)
+            target.onInserted(offset, size)
+        }
+    }
+
+    /**
+     * Removes section at [index] with all its items.
+     * The removed [MutableDelegapter] gets detached and won't affect this one anymore.
+     */
+    fun removeSection(index: Int) {
+        val offset = offsetOf(index)
+        val section = sections.removeAt(index)
+        section.index = -1
+        reindex(index)
+        rebuild()
+        val visible = section.visibleSize
+        _size -= visible
+        if (visible > 0) target.onRemoved(offset, visible)
+    }
+
+    /**
+     * Returns index of the section containing [position].
+     */
+    fun sectionAt(position: Int): Int {
+        if (position !in 0 until _size) throw oob(position)
+        return locate(position)
+    }
+
+    /**
+     * Returns global position of the first item of section at [index].
+     */
+    fun offsetOf(index: Int): Int {
+        if (index !in 0..sections.size) throw IndexOutOfBoundsException("$index ∉ [0, ${sections.size}]")
+        var sum = 0
+        var i = index
+        while (i > 0) {
+            sum += tree[i]
+            i -= i and -i
+        }
+        return sum
+    }
+
+    fun itemAt(position: Int): Any? =
+        sections[sectionAt(position)].data.itemAt(located)
+
+    fun longAt(position: Int): Long =
+        sections[sectionAt(position)].data.longAt(located)
+
+    override fun delegateAt(position: Int): Delegate<*> =
+        sections[sectionAt(position)].data.delegateAt(located)
+
+    fun viewTypeAt(position: Int): Int =
+        sections[sectionAt(position)].data.viewTypeAt(located)
+
+    fun forViewType(viewType: Int): Delegate<*> =
+        registry.forViewType(viewType)
+
+    // internals
+
+    // finds the last section starting at or before position, i.e. skips empty ones
+    private fun locate(position: Int): Int {
+        val n = sections.size
+        var at = 0
+        var rem = position
+        var step = Integer.highestOneBit(n)
+        while (step > 0) {
+            val next = at + step
+            if (next <= n && tree[next] <= rem) {
+                at = next
+                rem -= tree[next]
+            }
+            step = step shr 1
+        }
+        located = rem
+        return at
+    }
+
+    private fun grow(index: Int, by: Int) {
+        var i = index + 1
+        while (i <= sections.size) {
+            tree[i] += by
+            i += i and -i
+        }
+        _size += by
+    }
+
+    private fun reindex(from: Int) {
+        for (i in from until sections.size) sections[i].index = i
+    }
+
+    private fun rebuild() {
+        val n = sections.size
+        if (tree.size <= n) tree = IntArray(maxOf(n + 1, tree.size + (tree.size shr 1)))
+        else tree.fill(0)
+        for (i in 1..n) {
+            tree[i] += sections[i - 1].visibleSize
+            val j = i + (i and -i)
+            if (j <= n) tree[j] += tree[i]
+        }
+    }
+
+    private fun oob(position: Int) = // extracted rare path, don't bother JIT with StringBuilder chain
+        IndexOutOfBoundsException("$position ∉ [0, $_size)")
+
+    private inner class Section(@JvmField var index: Int) : ListUpdateCallback {
+        lateinit var data: MutableDelegapter
+        @JvmField var size = 0
+        @JvmField var collapsed = false
+
+        val visibleSize: Int
+            get() = if (collapsed) 0 else size
+
+        override fun onInserted(position: Int, count: Int) {
+            size += count
+            if (index < 0 || collapsed) return
+            grow(index, count)
+            target.onInserted(offsetOf(index) + position, count)
+        }
+        override fun onRemoved(position: Int, count: Int) {
+            size -= count
+            if (index < 0 || collapsed) return
+            grow(index, -count)
+            target.onRemoved(offsetOf(index) + position, count)
+        }
+        override fun onMoved(fromPosition: Int, toPosition: Int) {
+            if (index < 0 || collapsed) return
+            val offset = offsetOf(index)
+            target.onMoved(offset + fromPosition, offset + toPosition)
+        }
+        override fun onChanged(position: Int, count: Int, payload: Any?) {
+            if (index < 0 || collapsed) return
+            target.onChanged(offsetOf(index) + position, count, payload)
+        }
+    }
+
+}
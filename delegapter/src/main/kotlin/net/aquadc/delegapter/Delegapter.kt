@@ -10,36 +10,61 @@ import net.aquadc.delegapter.decor.DelegatePredicate
  * Data structure for holding (delegate, item) pairs with agreed types.
  * @author Mike Gorünóv
  */
-abstract class Delegapter protected constructor(initialItemCapacity: Int) {
+abstract class Delegapter protected constructor(initialItemCapacity: Int, chunkedStorage: Boolean) : DelegatedList {
 
-    @JvmField protected var itemDelegates: RemoveRangeArrayList<Delegate<*>> = RemoveRangeArrayList.create(initialItemCapacity)
-    @JvmField protected var items: RemoveRangeArrayList<Any?> = RemoveRangeArrayList.create(initialItemCapacity)
+    protected constructor(initialItemCapacity: Int) : this(initialItemCapacity, false)
+
+    @JvmField protected var itemDelegates: RunLengthList<Delegate<*>> = RunLengthList(-1)
+    @JvmField protected var items: RemoveRangeMutableList<Any?> =
+        if (chunkedStorage) ChunkedList(initialItemCapacity) else RemoveRangeArrayList.create(initialItemCapacity)
+    @JvmField internal var itemIndex: ItemIndex? = null
+    @JvmField internal var longs: LongList? = null // primitive lane for LongDelegate items, allocated on demand
 
     // common mutable interface
 
     abstract fun <D> add(delegate: DiffDelegate<in D>, item: D, atIndex: Int = size)
     abstract fun <D> set(delegate: DiffDelegate<in D>, item: D, atIndex: Int)
     abstract fun <D> addAll(delegate: DiffDelegate<in D>, items: Collection<D>, atIndex: Int = size)
+    abstract fun add(delegate: LongDelegate, item: Long, atIndex: Int = size)
+    abstract fun set(delegate: LongDelegate, item: Long, atIndex: Int)
+    abstract fun addAll(delegate: LongDelegate, items: LongArray, atIndex: Int = size)
 
     // use like a List
 
-    val size: Int
+    final override val size: Int
         get() = items.size
 
     val isEmpty: Boolean
         get() = items.isEmpty()
 
     fun itemAt(position: Int): Any? =
-        items[position]
+        items[position].let { if (it === LongSlot) longs!![position] else it }
+
+    /**
+     * Returns item of a [LongDelegate] at [position] without boxing.
+     */
+    fun longAt(position: Int): Long =
+        items[position].let { if (it === LongSlot) longs!![position] else it as Long }
 
-    fun delegateAt(position: Int): Delegate<*> =
+    final override fun delegateAt(position: Int): Delegate<*> =
         itemDelegates[position]
 
+    /**
+     * Returns exclusive end of the run of items sharing a delegate with the item at [position].
+     * Useful for iterating items run by run without looking up the delegate of each one.
+     */
+    fun delegateRunEnd(position: Int): Int =
+        itemDelegates.runEnd(position)
+
     fun contains(element: Any?): Boolean =
-        items.contains(element)
+        itemIndex?.contains(element) ?: (positionOf(element) >= 0)
 
-    fun containsAll(elements: Collection<Any?>): Boolean =
-        items.containsAll(elements)
+    fun containsAll(elements: Collection<Any?>): Boolean {
+        val index = itemIndex
+        return if (index != null) elements.all { it in index }
+        else if (longs == null) items.containsAll(elements)
+        else elements.all { positionOf(it) >= 0 }
+    }
 
     fun containsAny(delegate: Delegate<*>): Boolean =
         itemDelegates.contains(delegate)
@@ -48,44 +73,60 @@ abstract class Delegapter protected constructor(initialItemCapacity: Int) {
         delegate: Delegate<D>, item: D,
         startIndex: Int = 0, direction: Int = 1,
     ): Int {
-        require(direction != 0)
-        var i = startIndex
-        while (i in 0 until size) {
-            if (delegate == itemDelegates[i] && item == items[i])
+        val index = itemIndex
+        if (index != null && item !in index) return -1
+        var i = itemDelegates.indexOf(delegate, startIndex, direction)
+        while (i >= 0) {
+            if (matches(item, i, index))
                 return i
-            i += direction
+            i = itemDelegates.indexOf(delegate, i + direction, direction)
         }
         return -1
     }
+    // skips whole runs of other delegates
     fun <D> indexOf(
         delegate: Delegate<D>,
         startIndex: Int = 0, direction: Int = 1,
-    ): Int {
-        require(direction != 0)
-        var i = startIndex
-        while (i in 0 until size) {
-            if (delegate == itemDelegates[i])
-                return i
-            i += direction
-        }
+    ): Int =
+        itemDelegates.indexOf(delegate, startIndex, direction)
+
+    /**
+     * Returns the first position of [element] or `-1`.
+     */
+    internal fun positionOf(element: Any?): Int {
+        val index = itemIndex
+        if (index != null && element !in index) return -1
+        if (longs == null || element !is Long) // no LongSlot can match
+            return if (index != null && index.byIdentity) items.indexOfFirst { it === element } else items.indexOf(element)
+        for (i in items.indices) if (matches(element, i, index)) return i
         return -1
     }
 
+    // resolves LongSlot, compares Long values without boxing even if index is by identity
+    private fun matches(element: Any?, position: Int, index: ItemIndex?): Boolean {
+        val stored = items[position]
+        return if (stored === LongSlot) element is Long && element == longs!![position]
+        else index?.same(element, stored) ?: (element == stored)
+    }
+
     // debug
 
     override fun toString(): String = if (isEmpty) "[]" else buildString {
         append(super.toString()).append('(').append(items.size).append("): ").append('[').append('\n')
         for (i in items.indices) {
-            append('#').append(i).append(' ').appendFun(itemDelegates[i]).append(": ").append(items[i]).append('\n')
+            append('#').append(i).append(' ').appendFun(itemDelegates[i]).append(": ").append(itemAt(i)).append('\n')
         }
         append(']')
     }
 
+    internal fun longLane(): LongList =
+        longs ?: LongList(items.size).also { it.insert(0, items.size); longs = it }
+
     // hacks
 
     // fuck Kotlin access rules!
-    protected val Delegapter.items: RemoveRangeArrayList<Any?> get() = this.items
-    protected val Delegapter.itemDelegates: RemoveRangeArrayList<Delegate<*>> get() = this.itemDelegates
+    protected val Delegapter.items: RemoveRangeMutableList<Any?> get() = this.items
+    protected val Delegapter.itemDelegates: RunLengthList<Delegate<*>> get() = this.itemDelegates
 
 }
 
@@ -103,6 +144,15 @@ inline fun Delegapter(
 
 typealias Delegate<D> = (parent: ViewGroup) -> VH<*, *, D>
 
+/**
+ * Anything which has a delegate at each position, e.g. [Delegapter], [ConcatDelegapter], or [VirtualDelegapter].
+ * Enough for [net.aquadc.delegapter.decor.Decor] to decorate items.
+ */
+interface DelegatedList {
+    val size: Int
+    fun delegateAt(position: Int): Delegate<*>
+}
+
 inline fun Delegapter.findIndexOf(
     delegate: DelegatePredicate, item: (Any?) -> Boolean = { true },
     startIndex: Int = 0, direction: Int = 1,
@@ -121,12 +171,11 @@ inline fun <D> Delegapter.findIndexOfBy(
     noinline delegate: Delegate<D>, item: (D) -> Boolean = { true },
     startIndex: Int = 0, direction: Int = 1,
 ): Int {
-    require(direction != 0)
-    var i = startIndex
-    while (i in 0 until size) {
-        if (delegate == delegateAt(i) && item(itemAt(i) as D))
+    var i = indexOf(delegate, startIndex = startIndex, direction = direction)
+    while (i >= 0) {
+        if (item(itemAt(i) as D))
             return i
-        i += direction
+        i = indexOf(delegate, startIndex = i + direction, direction = direction)
     }
     return -1
 }
@@ -151,14 +200,23 @@ fun MutableDelegapter.add(delegate: DiffDelegate<in Unit>, atIndex: Int = size):
 fun MutableDelegapter.set(delegate: DiffDelegate<in Unit>, atIndex: Int): Unit = set(delegate, Unit, atIndex)
 
 inline fun Delegapter.forEachIndexed(block: (index: Int, delegate: Delegate<*>, item: Any?) -> Unit) {
-    repeat(size) {
-        block(it, delegateAt(it), itemAt(it))
+    val size = size
+    var i = 0
+    while (i < size) {
+        val delegate = delegateAt(i)
+        val runEnd = minOf(delegateRunEnd(i), size)
+        while (i < runEnd) {
+            block(i, delegate, itemAt(i))
+            i++
+        }
     }
 }
 inline fun <D> Delegapter.forEachIndexed(noinline delegate: Delegate<D>, block: (index: Int, item: D) -> Unit) {
-    forEachIndexed { index, curDelegate, item ->
-        if (curDelegate === delegate)
-            block(index, item as D)
+    var i = indexOf(delegate)
+    while (i >= 0) {
+        if (delegateAt(i) === delegate)
+            block(i, itemAt(i) as D)
+        i = indexOf(delegate, startIndex = i + 1)
     }
 }
 inline fun Delegapter.forEach(block: (delegate: Delegate<*>, item: Any?) -> Unit) {
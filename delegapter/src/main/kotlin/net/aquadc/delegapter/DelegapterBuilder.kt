@@ -0,0 +1,120 @@
+package net.aquadc.delegapter
+
+import java.util.Collections
+import java.util.IdentityHashMap
+
+/**
+ * [Delegapter] to fill on a background thread and hand over to [MutableDelegapter.addAll] or [MutableDelegapter.replaceAll].
+ * Remembers its distinct delegates, thus the main thread registers each of them once
+ * instead of looking up a viewType per item, and may adopt storage of this builder without copying.
+ * Not thread-safe: fill it on a single thread and publish safely, e.g. via [android.os.Handler.post].
+ * Single-use: once handed over, the builder is empty and rejects further mutation.
+ * @author Mike Gorünóv
+ */
+class DelegapterBuilder @JvmOverloads constructor(
+    initialItemCapacity: Int = -1,
+    chunkedStorage: Boolean = false,
+) : Delegapter(initialItemCapacity, chunkedStorage) {
+
+    // runs are tagged with indices in this list until handed over
+    private val distinct = ArrayList<Delegate<*>>()
+    private val distinctIndices = IdentityHashMap<Delegate<*>, Int>()
+    private var lastDelegate: Delegate<*>? = null
+    private var lastIndex = -1
+    private var handedOver = false
+
+    override fun <D> add(delegate: DiffDelegate<in D>, item: D, atIndex: Int): Unit =
+        add(delegate as Delegate<in D>, item, atIndex)
+    @JvmOverloads fun <D> add(delegate: Delegate<in D>, item: D, atIndex: Int = size) {
+        if (delegate is LongDelegate) return add(delegate, item as Long, atIndex)
+        checkOpen()
+        items.add(atIndex, item)
+        longs?.insert(atIndex, 1)
+        itemDelegates.add(atIndex, delegate, 1, distinctIndexOf(delegate))
+    }
+    override fun add(delegate: LongDelegate, item: Long, atIndex: Int) {
+        checkOpen()
+        val longs = longLane()
+        items.add(atIndex, LongSlot)
+        longs.insert(atIndex, 1)
+        longs[atIndex] = item
+        itemDelegates.add(atIndex, delegate, 1, distinctIndexOf(delegate))
+    }
+
+    override fun <D> set(delegate: DiffDelegate<in D>, item: D, atIndex: Int): Unit =
+        set(delegate as Delegate<in D>, item, atIndex)
+    fun <D> set(delegate: Delegate<in D>, item: D, atIndex: Int) {
+        if (delegate is LongDelegate) return set(delegate, item as Long, atIndex)
+        checkOpen()
+        items[atIndex] = item
+        itemDelegates.set(atIndex, delegate, distinctIndexOf(delegate))
+    }
+    override fun set(delegate: LongDelegate, item: Long, atIndex: Int) {
+        checkOpen()
+        val longs = longLane()
+        items[atIndex] = LongSlot
+        longs[atIndex] = item
+        itemDelegates.set(atIndex, delegate, distinctIndexOf(delegate))
+    }
+
+    override fun <D> addAll(delegate: DiffDelegate<in D>, items: Collection<D>, atIndex: Int): Unit =
+        addAll(delegate as Delegate<in D>, items, atIndex)
+    @JvmOverloads fun <D> addAll(delegate: Delegate<in D>, items: Collection<D>, atIndex: Int = size) {
+        if (delegate is LongDelegate)
+            return addAll(delegate, @Suppress("UNCHECKED_CAST") (items as Collection<Long>).toLongArray(), atIndex)
+        checkOpen()
+        if (items.isNotEmpty()) {
+            this.items.addAll(atIndex, items)
+            longs?.insert(atIndex, items.size)
+            itemDelegates.add(atIndex, delegate, items.size, distinctIndexOf(delegate))
+        }
+    }
+    override fun addAll(delegate: LongDelegate, items: LongArray, atIndex: Int) {
+        checkOpen()
+        if (items.isNotEmpty()) {
+            val longs = longLane()
+            this.items.addAll(atIndex, Collections.nCopies(items.size, LongSlot))
+            longs.insert(atIndex, items.size)
+            longs.setAll(atIndex, items)
+            itemDelegates.add(atIndex, delegate, items.size, distinctIndexOf(delegate))
+        }
+    }
+
+    private fun distinctIndexOf(delegate: Delegate<*>): Int {
+        if (delegate === lastDelegate) return lastIndex
+        val index = distinctIndices[delegate] ?: distinct.size.also {
+            distinct.add(delegate)
+            distinctIndices[delegate] = it
+        }
+        lastDelegate = delegate
+        lastIndex = index
+        return index
+    }
+
+    /**
+     * Registers each distinct delegate once and retags runs with resulting viewTypes.
+     */
+    internal fun resolve(viewTypeOf: (Delegate<*>) -> Int) {
+        val viewTypes = IntArray(distinct.size)
+        for (i in distinct.indices) viewTypes[i] = viewTypeOf(distinct[i])
+        itemDelegates.mapTags(viewTypes)
+    }
+
+    internal fun checkOpen() {
+        check(!handedOver) { "This DelegapterBuilder was already handed over" }
+    }
+
+    /**
+     * Forgets contents, possibly adopted by a [MutableDelegapter], and rejects further use.
+     */
+    internal fun handOver() {
+        handedOver = true
+        items = RemoveRangeArrayList.create(0)
+        itemDelegates = RunLengthList(-1)
+        longs = null
+        distinct.clear()
+        distinctIndices.clear()
+        lastDelegate = null
+    }
+
+}
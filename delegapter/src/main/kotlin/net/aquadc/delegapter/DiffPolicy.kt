@@ -0,0 +1,62 @@
+package net.aquadc.delegapter
+
+import androidx.recyclerview.widget.DiffUtil
+
+/**
+ * Decides how [MutableDelegapter.replace] diffs the window left after trimming common head and tail
+ * when items can't be matched by [keys][DiffDelegate.keyOf].
+ * Edit distance `D` is estimated from window sizes and mismatches among first [sampleSize] pairs of items,
+ * cost of [DiffUtil] is estimated as `(N + M) × D`.
+ * Adaptive behaviour is opt-in: [Default] never estimates, always diffs, and detects moves if requested.
+ * [MutableDelegapter.lastDiffPath] and [DiffStats.path] tell which way was taken.
+ * @author Mike Gorünóv
+ *
+ * @param maxMoveEdits move detection, which costs extra `O(D²)`, is disabled when estimated `D` exceeds this
+ * @param maxCost when estimated cost exceeds this, the window is reported changed instead of diffing
+ * @param sampleSize how many pairs of items to compare for estimation
+ */
+class DiffPolicy @JvmOverloads constructor(
+    @JvmField val maxMoveEdits: Int = Int.MAX_VALUE,
+    @JvmField val maxCost: Long = Long.MAX_VALUE,
+    @JvmField val sampleSize: Int = 64,
+) {
+    companion object {
+        /**
+         * Always diffs and detects moves if requested, like [DiffUtil] does.
+         */
+        @JvmField val Default: DiffPolicy = DiffPolicy()
+    }
+}
+
+/**
+ * The way a diff was computed, see [DiffStats.path].
+ * @author Mike Gorünóv
+ */
+enum class DiffPath {
+
+    /**
+     * Only insertions or only removals in a single place, nothing to diff after trimming.
+     */
+    Trimmed,
+
+    /**
+     * All items had keys, matched by them.
+     */
+    Keyed,
+
+    /**
+     * [DiffUtil] with move detection.
+     */
+    Myers,
+
+    /**
+     * [DiffUtil] without move detection, as requested or decided by [DiffPolicy.maxMoveEdits].
+     */
+    MyersWithoutMoves,
+
+    /**
+     * Window reported changed as a whole, with insertion or removal of the difference at its end,
+     * as decided by [DiffPolicy.maxCost].
+     */
+    RangeChanged,
+}
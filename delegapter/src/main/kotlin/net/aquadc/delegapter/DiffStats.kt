@@ -0,0 +1,111 @@
+package net.aquadc.delegapter
+
+import androidx.recyclerview.widget.DiffUtil
+import androidx.recyclerview.widget.ListUpdateCallback
+
+/**
+ * Statistics of a single diff,
+ * see [MutableDelegapter.diffListener] and [net.aquadc.delegapter.adapter.SingleTypeDiffAdapter.diffListener].
+ * Callback counts include comparisons made while trimming common head and tail.
+ * Event counts are of events emitted by the diff, before batching.
+ * @author Mike Gorünóv
+ */
+class DiffStats internal constructor(
+    @JvmField val oldSize: Int,
+    @JvmField val newSize: Int,
+) {
+    var areItemsTheSameCalls: Int = 0
+        internal set
+    var areContentsTheSameCalls: Int = 0
+        internal set
+    var getChangePayloadCalls: Int = 0
+        internal set
+
+    /**
+     * Time spent comparing items. Wall time of a background diff, or sum of frame slices of a sliced one.
+     */
+    var diffNanos: Long = 0L
+        internal set
+    var dispatchNanos: Long = 0L
+        internal set
+
+    /**
+     * How the diff was computed, `null` if it was not.
+     */
+    var path: DiffPath? = null
+        internal set
+
+    var insertions: Int = 0
+        internal set
+    var removals: Int = 0
+        internal set
+    var moves: Int = 0
+        internal set
+    var changes: Int = 0
+        internal set
+
+    override fun toString(): String =
+        "DiffStats(size: $oldSize → $newSize, " +
+            "calls: $areItemsTheSameCalls items, $areContentsTheSameCalls contents, $getChangePayloadCalls payloads, " +
+            "path: $path, time: ${diffNanos / 1000}µs diff, ${dispatchNanos / 1000}µs dispatch, " +
+            "events: $insertions ins, $removals rem, $moves mov, $changes chg)"
+}
+
+/**
+ * Receives [DiffStats] after each diff is dispatched, on the main thread.
+ */
+fun interface DiffListener {
+    fun onDiff(stats: DiffStats)
+}
+
+internal class CountingCallback(
+    private val callback: DiffUtil.Callback,
+    private val stats: DiffStats,
+) : DiffUtil.Callback() {
+    override fun getOldListSize(): Int = callback.oldListSize
+    override fun getNewListSize(): Int = callback.newListSize
+    override fun areItemsTheSame(oldItemPosition: Int, newItemPosition: Int): Boolean {
+        stats.areItemsTheSameCalls++
+        return callback.areItemsTheSame(oldItemPosition, newItemPosition)
+    }
+    override fun areContentsTheSame(oldItemPosition: Int, newItemPosition: Int): Boolean {
+        stats.areContentsTheSameCalls++
+        return callback.areContentsTheSame(oldItemPosition, newItemPosition)
+    }
+    override fun getChangePayload(oldItemPosition: Int, newItemPosition: Int): Any? {
+        stats.getChangePayloadCalls++
+        return callback.getChangePayload(oldItemPosition, newItemPosition)
+    }
+}
+
+internal class CountingListUpdateCallback(
+    private val target: ListUpdateCallback,
+    private val stats: DiffStats,
+) : ListUpdateCallback {
+    override fun onInserted(position: Int, count: Int) {
+        stats.insertions++
+        target.onInserted(position, count)
+    }
+    override fun onRemoved(position: Int, count: Int) {
+        stats.removals++
+        target.onRemoved(position, count)
+    }
+    override fun onMoved(fromPosition: Int, toPosition: Int) {
+        stats.moves++
+        target.onMoved(fromPosition, toPosition)
+    }
+    override fun onChanged(position: Int, count: Int, payload: Any?) {
+        stats.changes++
+        target.onChanged(position, count, payload)
+    }
+}
+
+/**
+ * Dispatches with [dispatch] to [target], counting events and time into [stats] if any.
+ */
+internal inline fun ListUpdateCallback.dispatchCounting(stats: DiffStats?, dispatch: (ListUpdateCallback) -> Unit) {
+    if (stats == null) return dispatch(this)
+    val start = System.nanoTime()
+    dispatch(CountingListUpdateCallback(this, stats))
+    stats.dispatchNanos += System.nanoTime() - start
+}
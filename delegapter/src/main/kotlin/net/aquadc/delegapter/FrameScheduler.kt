@@ -0,0 +1,21 @@
+package net.aquadc.delegapter
+
+/**
+ * Runs callbacks once per frame and tells time, drives [MutableDelegapter.replaceSliced].
+ * Use a manually advanced implementation in tests.
+ * @author Mike Gorünóv
+ */
+interface FrameScheduler {
+    fun postFrameCallback(callback: () -> Unit)
+    fun nanoTime(): Long
+
+    /**
+     * [android.view.Choreographer] of the current thread with [System.nanoTime] clock.
+     */
+    object Choreographer : FrameScheduler {
+        override fun postFrameCallback(callback: () -> Unit): Unit =
+            android.view.Choreographer.getInstance().postFrameCallback { callback() }
+        override fun nanoTime(): Long =
+            System.nanoTime()
+    }
+}
@@ -0,0 +1,371 @@
+package net.aquadc.delegapter
+
+import androidx.recyclerview.widget.DiffUtil
+import androidx.recyclerview.widget.ListUpdateCallback
+
+/**
+ * Diff of two [Delegapter]s whose items all have [keys][DiffDelegate.keyOf].
+ * Matches items by (delegate, key) with hash lookups, comparing delegates with `equals` as [DiffUtil] path does,
+ * keeps the longest increasing subsequence of matched items in place and moves the rest.
+ * Costs `O(N log N)` regardless of how many items have moved, unlike Myers' `O(N + D²)`.
+ * @author Mike Gorünóv
+ */
+internal class KeyedDiff private constructor(
+    private val ops: IntArray, // (type, a, b) triples
+    private val opCount: Int,
+    private val payloads: Array<Any?>,
+) {
+
+    fun dispatchUpdatesTo(target: ListUpdateCallback) {
+        for (i in 0 until opCount) {
+            val a = ops[3 * i + 1]
+            val b = ops[3 * i + 2]
+            when (ops[3 * i]) {
+                REMOVE -> target.onRemoved(a, b)
+                MOVE -> target.onMoved(a, b)
+                INSERT -> target.onInserted(a, b)
+                else -> target.onChanged(a, b, payloads[i])
+            }
+        }
+    }
+
+    private class Builder {
+        @JvmField var ops = IntArray(48)
+        @JvmField var payloads = arrayOfNulls<Any?>(16)
+        @JvmField var count = 0
+
+        fun add(type: Int, a: Int, b: Int, payload: Any? = null) {
+            if (count == payloads.size) {
+                ops = ops.copyOf(3 * (count + (count shr 1)))
+                payloads = payloads.copyOf(count + (count shr 1))
+            }
+            ops[3 * count] = type
+            ops[3 * count + 1] = a
+            ops[3 * count + 2] = b
+            payloads[count] = payload
+            count++
+        }
+
+        // merges a change into the previous one if adjacent and having the same payload
+        fun change(position: Int, payload: Any?) {
+            val last = count - 1
+            if (last >= 0 && ops[3 * last] == CHANGE && payloads[last] === payload &&
+                ops[3 * last + 1] + ops[3 * last + 2] == position) ops[3 * last + 2]++
+            else add(CHANGE, position, 1, payload)
+        }
+    }
+
+    /**
+     * Computes [KeyedDiff] of windows of [callback]'s sizes starting from [from] in both lists
+     * in [steps][advance] taking time proportional to the number of items processed,
+     * thus it can be spread across frames, see [MutableDelegapter.replaceSliced].
+     * [old] and [new] must not change until done.
+     * @param callback compares contents and computes payloads of items at (old, new) positions within windows
+     * @param detectMoves if `false`, moved items are removed and inserted
+     */
+    @Suppress("UNCHECKED_CAST")
+    internal class Calculation(
+        private val old: Delegapter, private val new: Delegapter, private val from: Int,
+        private val callback: DiffUtil.Callback, private val detectMoves: Boolean,
+    ) {
+        private val oldSize = callback.oldListSize
+        private val newSize = callback.newListSize
+        private var phase = INDEXING
+        private var i = 0 // progress within the current phase
+
+        private var keysByDelegate: HashMap<Delegate<*>, HashMap<Any, Int>>? = HashMap()
+        private val oldToNew = IntArray(oldSize).also { it.fill(-1) }
+        private val newToOld = IntArray(newSize)
+
+        // longest increasing subsequence of old positions in new order stays in place
+        private var stable: BooleanArray? = null
+        private var tails: IntArray? = null // new positions ending increasing runs of length k + 1
+        private var prev: IntArray? = null
+        private var lisLength = 0
+
+        private var moves: Moves? = null
+        private val out = Builder()
+
+        /**
+         * The diff, or `null` if some item has no key or a key matches several items,
+         * then one should fall back to [DiffUtil]. Valid when [advance] returns `true`.
+         */
+        var result: KeyedDiff? = null
+            private set
+
+        /**
+         * Processes about [steps] items.
+         * @return whether done
+         */
+        fun advance(steps: Int): Boolean {
+            var budget = steps
+            while (phase != DONE) {
+                budget = when (phase) {
+                    INDEXING -> index(budget)
+                    MATCHING -> match(budget)
+                    ORDERING -> lis(budget)
+                    MOVING -> move(budget)
+                    else -> change(budget)
+                }
+                if (budget <= 0 && phase != DONE) return false
+            }
+            return true
+        }
+
+        // index old items by delegate and key, looking up delegate maps once per run
+        private fun index(steps: Int): Int {
+            var budget = steps
+            val keysByDelegate = keysByDelegate!!
+            while (i < oldSize) {
+                if (budget <= 0) return 0
+                val delegate = old.delegateAt(from + i) as? DiffDelegate<Any?> ?: return fail()
+                val keys = keysByDelegate[delegate] ?: HashMap<Any, Int>().also { keysByDelegate[delegate] = it }
+                var end = minOf(old.delegateRunEnd(from + i) - from, oldSize)
+                if (end - i > budget) end = i + budget
+                budget -= end - i
+                while (i < end) {
+                    val key = delegate.keyOf(old.itemAt(from + i)) ?: return fail()
+                    if (keys.put(key, i) != null) return fail()
+                    i++
+                }
+            }
+            phase = MATCHING
+            i = 0
+            return budget
+        }
+
+        private fun match(steps: Int): Int {
+            var budget = steps
+            val keysByDelegate = keysByDelegate!!
+            while (i < newSize) {
+                if (budget <= 0) return 0
+                val delegate = new.delegateAt(from + i) as? DiffDelegate<Any?> ?: return fail()
+                val keys = keysByDelegate[delegate]
+                var end = minOf(new.delegateRunEnd(from + i) - from, newSize)
+                if (end - i > budget) end = i + budget
+                budget -= end - i
+                while (i < end) {
+                    val key = delegate.keyOf(new.itemAt(from + i)) ?: return fail()
+                    val o = keys?.get(key) ?: -1
+                    if (o >= 0) {
+                        if (oldToNew[o] >= 0) return fail()
+                        oldToNew[o] = i
+                    }
+                    newToOld[i] = o
+                    i++
+                }
+            }
+            this.keysByDelegate = null
+            stable = BooleanArray(oldSize)
+            tails = IntArray(minOf(oldSize, newSize))
+            prev = IntArray(newSize)
+            phase = ORDERING
+            i = 0
+            return budget
+        }
+
+        private fun lis(steps: Int): Int {
+            val tails = tails!!
+            val prev = prev!!
+            val end = if (newSize - i > steps) i + steps else newSize
+            val budget = steps - (end - i)
+            while (i < end) {
+                val j = i++
+                val o = newToOld[j]
+                if (o < 0) continue
+                var lo = 0
+                var hi = lisLength
+                while (lo < hi) {
+                    val mid = (lo + hi) ushr 1
+                    if (newToOld[tails[mid]] < o) lo = mid + 1 else hi = mid
+                }
+                prev[j] = if (lo > 0) tails[lo - 1] else -1
+                tails[lo] = j
+                if (lo == lisLength) lisLength++
+            }
+            if (i < newSize) return 0
+
+            val stable = stable!!
+            var j = if (lisLength > 0) tails[lisLength - 1] else -1
+            while (j >= 0) {
+                stable[newToOld[j]] = true
+                j = prev[j]
+            }
+            this.tails = null
+            this.prev = null
+            var movers = 0
+            for (o in 0 until oldSize) if (oldToNew[o] >= 0 && !stable[o]) {
+                if (detectMoves) movers++
+                else { newToOld[oldToNew[o]] = -1; oldToNew[o] = -1 }
+            }
+
+            // removals, from the end so that positions are not affected
+            var o = oldSize - 1
+            while (o >= 0) {
+                if (oldToNew[o] >= 0) { o--; continue }
+                val last = o
+                while (o >= 0 && oldToNew[o] < 0) o--
+                out.add(REMOVE, o + 1, last - o)
+            }
+
+            if (movers > 0) {
+                moves = Moves(oldSize, newSize, oldToNew, newToOld, stable, lisLength)
+                phase = MOVING
+            } else {
+                insertions()
+            }
+            i = 0
+            return budget
+        }
+
+        private fun move(steps: Int): Int {
+            val end = if (newSize - i > steps) i + steps else newSize
+            val budget = steps - (end - i)
+            moves!!.run(i, end, out)
+            i = end
+            if (i < newSize) return 0
+            moves = null
+            insertions()
+            return budget
+        }
+
+        // insertions, from the beginning, all preceding items are already in place
+        private fun insertions() {
+            var j = 0
+            while (j < newSize) {
+                if (newToOld[j] >= 0) { j++; continue }
+                val start = j
+                while (j < newSize && newToOld[j] < 0) j++
+                out.add(INSERT, start, j - start)
+            }
+            stable = null
+            phase = CHANGING
+            i = 0
+        }
+
+        // changes at new positions
+        private fun change(steps: Int): Int {
+            val end = if (newSize - i > steps) i + steps else newSize
+            val budget = steps - (end - i)
+            while (i < end) {
+                val n = i++
+                val p = newToOld[n]
+                if (p >= 0 && !callback.areContentsTheSame(p, n)) out.change(n, callback.getChangePayload(p, n))
+            }
+            if (i < newSize) return 0
+            result = KeyedDiff(out.ops, out.count, out.payloads)
+            phase = DONE
+            return budget
+        }
+
+        private fun fail(): Int {
+            keysByDelegate = null
+            phase = DONE
+            return 0
+        }
+    }
+
+    /**
+     * Moves each non-stable item right after its predecessor in new order.
+     * Current positions are counted in a slot space where each gap between stable items holds
+     * new slots of items moved into it, then old slots of items not moved out of it yet, in this order,
+     * which always matches the order of items in the list.
+     */
+    private class Moves(
+        oldSize: Int, private val newSize: Int, oldToNew: IntArray,
+        private val newToOld: IntArray, private val stable: BooleanArray, stableCount: Int,
+    ) {
+        private val newInGap = IntArray(stableCount + 1)
+        private val base = IntArray(stableCount + 2)
+        private val oldSlot = IntArray(oldSize)
+        private val taken = IntArray(stableCount + 1)
+        private val slots: Fenwick
+        private var g = 0
+
+        init {
+            val oldInGap = IntArray(stableCount + 1)
+            var g = 0
+            for (o in 0 until oldSize) if (oldToNew[o] >= 0) { if (stable[o]) g++ else oldInGap[g]++ }
+            g = 0
+            for (n in 0 until newSize) newToOld[n].let { o -> if (o >= 0) { if (stable[o]) g++ else newInGap[g]++ } }
+
+            for (gap in 0..stableCount) base[gap + 1] = base[gap] + newInGap[gap] + oldInGap[gap] + 1
+
+            slots = Fenwick(base[stableCount + 1])
+            g = 0
+            for (o in 0 until oldSize) if (oldToNew[o] >= 0) {
+                if (stable[o]) {
+                    oldSlot[o] = base[g] + newInGap[g] + oldInGap[g] // closes the gap
+                    g++
+                } else {
+                    oldSlot[o] = base[g] + newInGap[g] + taken[g]++
+                }
+                slots.add(oldSlot[o], 1)
+            }
+            taken.fill(0)
+        }
+
+        // moves items at new positions [from, to)
+        fun run(from: Int, to: Int, out: Builder) {
+            for (n in from until to) {
+                val o = newToOld[n]
+                if (o < 0) continue
+                if (stable[o]) { g++; continue }
+                val fromPosition = slots.prefix(oldSlot[o])
+                slots.add(oldSlot[o], -1)
+                val newSlot = base[g] + taken[g]++
+                val toPosition = slots.prefix(newSlot)
+                slots.add(newSlot, 1)
+                if (fromPosition != toPosition) out.add(MOVE, fromPosition, toPosition)
+            }
+        }
+    }
+
+    companion object {
+        private const val REMOVE = 0
+        private const val MOVE = 1
+        private const val INSERT = 2
+        private const val CHANGE = 3
+
+        // Calculation phases
+        private const val INDEXING = 0
+        private const val MATCHING = 1
+        private const val ORDERING = 2
+        private const val MOVING = 3
+        private const val CHANGING = 4
+        private const val DONE = 5
+
+        /**
+         * Computes a diff at once, see [Calculation].
+         * @return the diff, or `null` if keys can't be used
+         */
+        fun calculate(
+            old: Delegapter, new: Delegapter, from: Int, callback: DiffUtil.Callback, detectMoves: Boolean,
+        ): KeyedDiff? =
+            Calculation(old, new, from, callback, detectMoves).run { advance(Int.MAX_VALUE); result }
+    }
+
+    private class Fenwick(size: Int) {
+        private val tree = IntArray(size + 1)
+
+        fun add(index: Int, by: Int) {
+            var i = index + 1
+            while (i < tree.size) {
+                tree[i] += by
+                i += i and -i
+            }
+        }
+
+        // sum of [0, index)
+        fun prefix(index: Int): Int {
+            var sum = 0
+            var i = index
+            while (i > 0) {
+                sum += tree[i]
+                i -= i and -i
+            }
+            return sum
+        }
+    }
+
+}
@@ -0,0 +1,53 @@
+package net.aquadc.delegapter
+
+import android.view.View
+import android.view.ViewGroup
+import androidx.recyclerview.widget.RecyclerView
+
+/**
+ * A delegate for numeric rows (counters, timestamps, IDs; `Int`s fit, too).
+ * [Delegapter] stores items of such delegates in a primitive lane, without boxing,
+ * and diffs them by [areItemsTheSame] and [areContentsTheSame] specialized for `Long`.
+ * By default, any two items are the same and their contents are equal if values are.
+ */
+abstract class LongDelegate : DiffDelegate<Long>() {
+    abstract override fun invoke(p1: ViewGroup): LongVH<*, *>
+    override fun areItemsTheSame(oldItem: Long, newItem: Long): Boolean = true
+    override fun areContentsTheSame(oldItem: Long, newItem: Long): Boolean = oldItem == newItem
+    override fun getChangePayload(oldItem: Long, newItem: Long): Any? = null
+
+    /**
+     * Compiled to a primitive overload, thus doesn't box.
+     * Returns [RecyclerView.NO_ID] by default, override to return [item] if values identify items.
+     */
+    override fun itemIdOf(item: Long): Long = RecyclerView.NO_ID
+}
+
+/**
+ * Creates a [LongDelegate] from [create] function.
+ */
+inline fun LongDelegate(crossinline create: (parent: ViewGroup) -> LongVH<*, *>): LongDelegate =
+    object : LongDelegate() {
+        override fun invoke(p1: ViewGroup): LongVH<*, *> = create(p1)
+    }
+
+/**
+ * [VH] for `Long` items. `bind(Long, …)` is compiled to a primitive overload,
+ * thus binding items stored by [LongDelegate] doesn't box.
+ */
+open class LongVH<out V : View, out B>(view: V, binding: B) : VH<V, B, Long>(view, binding) {
+    override fun bind(data: Long, position: Int, payloads: List<Any>) {}
+}
+
+inline fun <V : View> LongVH(view: V, crossinline bind: V.(Long) -> Unit): LongVH<V, Nothing?> =
+    object : LongVH<V, Nothing?>(view, null) {
+        override fun bind(data: Long, position: Int, payloads: List<Any>) =
+            view.bind(data)
+    }
+
+/**
+ * Item placeholder for positions whose values live in the primitive lane.
+ */
+internal object LongSlot {
+    override fun toString(): String = "LongSlot"
+}
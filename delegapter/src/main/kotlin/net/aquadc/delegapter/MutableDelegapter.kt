@@ -1,11 +1,16 @@
 package net.aquadc.delegapter
 
 import android.view.ViewGroup
+import android.os.Handler
+import android.os.Looper
 import androidx.recyclerview.widget.AdapterListUpdateCallback
 import androidx.recyclerview.widget.DiffUtil
 import androidx.recyclerview.widget.ListUpdateCallback
 import androidx.recyclerview.widget.RecyclerView
 import java.lang.ref.WeakReference
+import java.util.Collections
+import java.util.concurrent.Executor
+import kotlin.math.abs
 
 /**
  * Mutable data structure for holding (delegate, item) pairs with agreed types.
@@ -15,29 +20,73 @@ import java.lang.ref.WeakReference
  * @param parent delegapter father to share viewTypes with
  * @param initialDelegateCapacity how many delegates expected to manage. Ignored if [parent] is specified
  * @param initialItemCapacity how many items expected to manage
+ * @param chunkedStorage store items in fixed-size blocks instead of a single array.
+ *   Makes insertions and removals near the beginning of long lists cheap at the cost of slightly slower access.
+ *   Required for cheap [snapshot]s, see there
  */
 class MutableDelegapter(
     private val target: ListUpdateCallback,
     private val parent: MutableDelegapter? = null,
     initialDelegateCapacity: Int = -1,
     initialItemCapacity: Int = -1,
-) : Delegapter(initialItemCapacity) {
+    private val chunkedStorage: Boolean,
+) : Delegapter(initialItemCapacity, chunkedStorage) {
+
+    // chunkedStorage has no default value above to keep signatures of these constructors intact
+
+    constructor(
+        target: ListUpdateCallback,
+        parent: MutableDelegapter? = null,
+        initialDelegateCapacity: Int = -1,
+        initialItemCapacity: Int = -1,
+    ) : this(target, parent, initialDelegateCapacity, initialItemCapacity, false)
 
     constructor(
         target: RecyclerView.Adapter<*>,
         parent: MutableDelegapter? = null,
         initialDelegateCapacity: Int = -1,
         initialCapacity: Int = -1,
+        chunkedStorage: Boolean,
     ) : this(
-        AdapterListUpdateCallback(target), parent, initialDelegateCapacity, initialCapacity,
+        AdapterListUpdateCallback(target), parent, initialDelegateCapacity, initialCapacity, chunkedStorage,
     )
 
+    constructor(
+        target: RecyclerView.Adapter<*>,
+        parent: MutableDelegapter? = null,
+        initialDelegateCapacity: Int = -1,
+        initialCapacity: Int = -1,
+    ) : this(target, parent, initialDelegateCapacity, initialCapacity, false)
+
     private val viewTypeList: RemoveRangeArrayList<WeakReference<Delegate<*>>?>
     private val viewTypeMap: WeakIdentityHashMap<Delegate<*>, Int>
 
-    private var repeat: RepeatList<Delegate<*>>? = null
-        get() = field ?: parent?.repeat
-        set(value) { field = value; if (parent != null) parent.repeat = value }
+    private var updates: ListUpdateCallback = target // target itself or batching wrapper
+    private var batching: BatchingCallback? = null
+    private var batchDepth = 0
+
+    private var shared = false // array items are referenced by a snapshot
+    private var modCount = 0
+    @Volatile private var generation = 0 // of replace() calls, newer ones supersede pending replaceAsync()
+    private var handler: Handler? = null
+
+    /**
+     * Receives [DiffStats] of each [replace], [replaceAsync], and [replaceSliced] call.
+     * Counting is enabled only while a listener is set.
+     */
+    @Volatile var diffListener: DiffListener? = null
+
+    /**
+     * Decides whether to detect moves or diff at all when items can't be matched by keys.
+     */
+    @Volatile var diffPolicy: DiffPolicy = DiffPolicy.Default
+
+    /**
+     * How the latest applied diff was computed, recorded with or without [diffListener].
+     */
+    var lastDiffPath: DiffPath? = null
+        private set
+
     private var differ: Differ? = null
         get() = field ?: parent?.differ
         set(value) { field = value; if (parent != null) parent.differ = differ }
@@ -67,82 +116,273 @@ class MutableDelegapter(
     override fun <D> add(delegate: DiffDelegate<in D>, item: D, atIndex: Int): Unit =
         add(delegate as Delegate<in D>, item, atIndex)
     @JvmOverloads fun <D> add(delegate: Delegate<in D>, item: D, atIndex: Int = size) {
+        if (delegate is LongDelegate) return add(delegate, item as Long, atIndex)
+        beforeMutation()
         items.add(atIndex, item)
-        itemDelegates.add(atIndex, delegate)
-        target.onInserted(atIndex, 1)
-        tryAddDelegate(delegate)
+        longs?.insert(atIndex, 1)
+        itemIndex?.add(item)
+        itemDelegates.add(atIndex, delegate, 1, tryAddDelegate(delegate))
+        updates.onInserted(atIndex, 1)
+    }
+    override fun add(delegate: LongDelegate, item: Long, atIndex: Int) {
+        beforeMutation()
+        val longs = longLane()
+        items.add(atIndex, LongSlot)
+        longs.insert(atIndex, 1)
+        longs[atIndex] = item
+        itemIndex?.addLong(item)
+        itemDelegates.add(atIndex, delegate, 1, tryAddDelegate(delegate))
+        updates.onInserted(atIndex, 1)
     }
 
     override fun <D> set(delegate: DiffDelegate<in D>, item: D, atIndex: Int): Unit =
         set(delegate as Delegate<in D>, item, atIndex)
     @JvmOverloads fun <D> set(delegate: Delegate<in D>, item: D, atIndex: Int, payload: Any? = null) {
+        if (delegate is LongDelegate) return set(delegate, item as Long, atIndex, payload)
+        beforeMutation()
+        itemIndex?.run { removeAll(items, longs, atIndex, atIndex + 1); add(item) }
         items[atIndex] = item
-        itemDelegates[atIndex] = delegate
-        target.onChanged(atIndex, 1, payload)
-        tryAddDelegate(delegate)
+        itemDelegates.set(atIndex, delegate, tryAddDelegate(delegate))
+        updates.onChanged(atIndex, 1, payload)
+    }
+    override fun set(delegate: LongDelegate, item: Long, atIndex: Int): Unit =
+        set(delegate, item, atIndex, null)
+    fun set(delegate: LongDelegate, item: Long, atIndex: Int, payload: Any?) {
+        beforeMutation()
+        val longs = longLane()
+        itemIndex?.run { removeAll(items, longs, atIndex, atIndex + 1); addLong(item) }
+        items[atIndex] = LongSlot
+        longs[atIndex] = item
+        itemDelegates.set(atIndex, delegate, tryAddDelegate(delegate))
+        updates.onChanged(atIndex, 1, payload)
     }
 
     override fun <D> addAll(delegate: DiffDelegate<in D>, items: Collection<D>, atIndex: Int): Unit =
         addAll(delegate as Delegate<in D>, items, atIndex)
     @JvmOverloads fun <D> addAll(delegate: Delegate<in D>, items: Collection<D>, atIndex: Int = size) {
+        if (delegate is LongDelegate)
+            return addAll(delegate, @Suppress("UNCHECKED_CAST") (items as Collection<Long>).toLongArray(), atIndex)
         if (items.isNotEmpty()) {
+            beforeMutation()
             this.items.addAll(atIndex, items)
-            (repeat ?: RepeatList<Delegate<*>>().also { repeat = it })
-                .of(delegate, items.size) { itemDelegates.addAll(atIndex, it) }
-            target.onInserted(atIndex, items.size)
-            tryAddDelegate(delegate)
+            longs?.insert(atIndex, items.size)
+            itemIndex?.addAll(this.items, longs, atIndex, atIndex + items.size)
+            itemDelegates.add(atIndex, delegate, items.size, tryAddDelegate(delegate))
+            updates.onInserted(atIndex, items.size)
+        }
+    }
+    override fun addAll(delegate: LongDelegate, items: LongArray, atIndex: Int) {
+        if (items.isNotEmpty()) {
+            beforeMutation()
+            val longs = longLane()
+            this.items.addAll(atIndex, Collections.nCopies(items.size, LongSlot))
+            longs.insert(atIndex, items.size)
+            longs.setAll(atIndex, items)
+            itemIndex?.addAll(this.items, longs, atIndex, atIndex + items.size)
+            itemDelegates.add(atIndex, delegate, items.size, tryAddDelegate(delegate))
+            updates.onInserted(atIndex, items.size)
         }
     }
 
-    // e.g. you've computed a chunk on a background thread and want to add its contents
+    // e.g. you've computed a chunk on a background thread and want to add its contents,
+    // see also DelegapterBuilder which avoids per-item work here
     fun addAll(from: Delegapter, fromIndex: Int = 0, toIndex: Int = from.size, atIndex: Int = size) {
         require(fromIndex >= 0 && toIndex <= from.size)
         if (fromIndex == toIndex) return
+        beforeMutation()
 
-        var items: List<Any?> = from.items
-        var itemDelegates: List<Delegate<*>> = from.itemDelegates
-        if (fromIndex != 0 || toIndex != from.size) {
-            items = items.subList(fromIndex, toIndex)
-            itemDelegates = itemDelegates.subList(fromIndex, toIndex)
-        }
+        val items: List<Any?> =
+            if (fromIndex != 0 || toIndex != from.size) from.items.subList(fromIndex, toIndex) else from.items
 
         // before we tryAddDelegates(), implicitly range-check `atIndex` by List internals
         this.items.addAll(atIndex, items)
-        this.itemDelegates.addAll(atIndex, itemDelegates)
+        longs?.insert(atIndex, items.size)
+        from.longs?.let { fromLongs -> longLane().copyFrom(fromLongs, fromIndex, toIndex, atIndex) }
+        itemIndex?.addAll(this.items, longs, atIndex, atIndex + items.size)
         // now we're safe
-        for (i in itemDelegates.indices) {
-            tryAddDelegate(itemDelegates[i])
+        addRuns(from, fromIndex, toIndex, atIndex)
+
+        updates.onInserted(atIndex, items.size)
+    }
+
+    /**
+     * Appends contents of [from] and [hands it over][DelegapterBuilder], thus [from] can't be used anymore.
+     * Registers each distinct delegate of [from] once and copies its storage in bulk,
+     * or adopts the storage if this Delegapter is empty.
+     */
+    fun addAll(from: DelegapterBuilder) {
+        from.checkOpen()
+        if (isEmpty) return replaceAll(from)
+        val count = from.size
+        if (count == 0) return
+        beforeMutation()
+        from.resolve(::tryAddDelegate)
+        val atIndex = items.size
+        items.addAll(from.items)
+        longs?.insert(atIndex, count)
+        from.longs?.let { fromLongs -> longLane().copyFrom(fromLongs, 0, count, atIndex) }
+        itemIndex?.addAll(items, longs, atIndex, atIndex + count)
+        itemDelegates.addAll(atIndex, from.itemDelegates, 0, count)
+        from.handOver()
+        updates.onInserted(atIndex, count)
+    }
+
+    /**
+     * Replaces whole contents with ones of [from] adopting its storage without copying, thus [from] can't be used anymore.
+     * Items at common positions are notified as changed, without diffing.
+     * Storage kind ([chunkedStorage] or not) is inherited from [from].
+     */
+    fun replaceAll(from: DelegapterBuilder) {
+        val oldSize = items.size
+        val newSize = from.size
+        adopt(from)
+        if (minOf(oldSize, newSize) > 0) updates.onChanged(0, minOf(oldSize, newSize), null)
+        if (newSize > oldSize) updates.onInserted(oldSize, newSize - oldSize)
+        else if (oldSize > newSize) updates.onRemoved(newSize, oldSize - newSize)
+    }
+
+    private companion object {
+        private const val SLICE_STEPS = 64 // item comparisons between clock checks
+
+        // SlicedDiff stages
+        private const val TRIMMING = 0
+        private const val MATCHING = 1
+        private const val DIFFING = 2
+        private const val ITEM_ID_BITS = 48 // viewType goes above
+        private const val MAX_ASYNC_DIFFS = 3 // then replaceAsync() diffs on the main thread
+    }
+
+    private fun adopt(from: DelegapterBuilder) {
+        from.checkOpen()
+        from.resolve(::tryAddDelegate)
+        modCount++
+        items = from.items
+        itemDelegates = from.itemDelegates
+        longs = from.longs
+        shared = false
+        from.handOver()
+        itemIndex?.run { clear(); addAll(items, longs) }
+    }
+
+    /**
+     * Overwrites items starting from [atIndex] with [items],
+     * notifying target with a single [ListUpdateCallback.onChanged].
+     */
+    @JvmOverloads fun <D> setAll(delegate: Delegate<in D>, items: Collection<D>, atIndex: Int, payload: Any? = null) {
+        val count = items.size
+        if (count == 0) return
+        // range-check before touching items
+        itemDelegates.removeRange(atIndex, atIndex + count)
+        beforeMutation()
+        itemDelegates.add(atIndex, delegate, count, tryAddDelegate(delegate))
+        itemIndex?.removeAll(this.items, this.longs, atIndex, atIndex + count)
+        val longs = if (delegate is LongDelegate) longLane() else null
+        var i = atIndex
+        for (item in items) {
+            if (longs != null) longs[i] = item as Long
+            this.items[i++] = if (longs == null) item else LongSlot
         }
+        itemIndex?.addAll(this.items, this.longs, atIndex, atIndex + count)
+        updates.onChanged(atIndex, count, payload)
+    }
 
-        target.onInserted(atIndex, items.size)
+    /**
+     * Overwrites items starting from [atIndex] with items of [from] in range [[fromIndex], [toIndex]),
+     * notifying target with a single [ListUpdateCallback.onChanged].
+     */
+    fun setAll(
+        from: Delegapter, fromIndex: Int = 0, toIndex: Int = from.size, atIndex: Int, payload: Any? = null,
+    ) {
+        require(fromIndex >= 0 && toIndex <= from.size)
+        val count = toIndex - fromIndex
+        if (count <= 0) return
+        // range-check before touching items
+        itemDelegates.removeRange(atIndex, atIndex + count)
+        beforeMutation()
+        addRuns(from, fromIndex, toIndex, atIndex)
+        itemIndex?.removeAll(items, longs, atIndex, atIndex + count)
+        from.longs?.let { fromLongs -> longLane().copyFrom(fromLongs, fromIndex, toIndex, atIndex) }
+        for (i in 0 until count) items[atIndex + i] = from.items[fromIndex + i]
+        itemIndex?.addAll(items, longs, atIndex, atIndex + count)
+        updates.onChanged(atIndex, count, payload)
+    }
+
+    // visit each run once
+    private fun addRuns(from: Delegapter, fromIndex: Int, toIndex: Int, atIndex: Int) {
+        var i = fromIndex
+        var at = atIndex
+        while (i < toIndex) {
+            val delegate = from.itemDelegates[i]
+            val end = minOf(from.itemDelegates.runEnd(i), toIndex)
+            itemDelegates.add(at, delegate, end - i, tryAddDelegate(delegate))
+            at += end - i
+            i = end
+        }
     }
 
-    private fun tryAddDelegate(delegate: Delegate<*>) {
-        if (!viewTypeMap.containsKey(delegate)) {
+    private fun tryAddDelegate(delegate: Delegate<*>): Int =
+        viewTypeMap[delegate] ?: viewTypeList.size.also { viewType ->
             viewTypeList.add(
-                viewTypeMap.putAndGetKeyRef(delegate, viewTypeList.size)
+                viewTypeMap.putAndGetKeyRef(delegate, viewType)
             )
         }
-    }
 
     fun remove(element: Any?): Boolean {
-        val iof = items.indexOf(element)
+        val iof = positionOf(element)
         return if (iof < 0) false else { removeAt(iof); true }
     }
     fun removeAt(position: Int) {
+        beforeMutation()
+        itemIndex?.removeAll(items, longs, position, position + 1)
         items.removeAt(position)
+        longs?.removeRange(position, position + 1)
         itemDelegates.removeAt(position)
-        target.onRemoved(position, 1)
+        updates.onRemoved(position, 1)
     }
     fun removeRange(start: Int, endEx: Int) {
+        beforeMutation()
+        itemIndex?.removeAll(items, longs, start, endEx)
         items.removeRange(start, endEx)
+        longs?.removeRange(start, endEx)
         itemDelegates.removeRange(start, endEx)
-        target.onRemoved(start, endEx - start)
+        updates.onRemoved(start, endEx - start)
     }
+
+    /**
+     * Moves an item from [fromPosition] to [toPosition] notifying target with [ListUpdateCallback.onMoved].
+     */
+    fun move(fromPosition: Int, toPosition: Int): Unit =
+        moveRange(fromPosition, 1, toPosition)
+
+    /**
+     * Moves [count] items starting from [fromPosition] so that they start from [toPosition] afterwards.
+     * Items are rotated in place, target receives [count] [ListUpdateCallback.onMoved] events.
+     */
+    fun moveRange(fromPosition: Int, count: Int, toPosition: Int) {
+        // range-check before touching items
+        itemDelegates.move(fromPosition, count, toPosition)
+        if (fromPosition == toPosition || count == 0) return
+        beforeMutation()
+        longs?.move(fromPosition, count, toPosition)
+        if (toPosition < fromPosition) {
+            Collections.rotate(items.subList(toPosition, fromPosition + count), count)
+            for (i in 0 until count) updates.onMoved(fromPosition + i, toPosition + i)
+        } else {
+            Collections.rotate(items.subList(fromPosition, toPosition + count), -count)
+            for (i in 0 until count) updates.onMoved(fromPosition, toPosition + count - 1)
+        }
+    }
+
     fun removeAll(elements: Collection<Any?>): Boolean = batchRemove(elements, false)
     fun retainAll(elements: Collection<Any?>): Boolean = batchRemove(elements, true)
-    private fun batchRemove(elements: Collection<Any?>, complement: Boolean): Boolean =
-        batchRemoveIf { elements.contains(items[it]) != complement }
+    private fun batchRemove(elements: Collection<Any?>, complement: Boolean): Boolean {
+        val lookup = itemIndex?.lookupOf(elements) ?: hashLookupOf(elements)
+        val longs = longs ?: return batchRemoveIf { lookup.contains(items[it]) != complement }
+        val longLookup = if (itemIndex?.byIdentity == true) hashLookupOf(elements) else lookup // by value
+        return batchRemoveIf {
+            items[it].let { item -> if (item === LongSlot) longLookup.contains(longs[it]) else lookup.contains(item) } != complement
+        }
+    }
     @JvmName("removeAllBy") fun removeAll(delegate: Delegate<*>): Boolean = batchRemoveBy(delegate, false)
     @JvmName("retainAllBy") fun retainAll(delegate: Delegate<*>): Boolean = batchRemoveBy(delegate, true)
     private fun batchRemoveBy(delegate: Delegate<*>, complement: Boolean): Boolean =
@@ -152,25 +392,104 @@ class MutableDelegapter(
     private fun batchRemoveBy(delegates: Collection<Delegate<*>>, complement: Boolean): Boolean =
         batchRemoveIf { delegates.contains(itemDelegates[it]) != complement }
     private inline fun batchRemoveIf(predicate: (Int) -> Boolean): Boolean {
-        var removed = 0
-        for (i in itemDelegates.indices) if (predicate(i)) {
-            items.markForRemoval(i)
-            itemDelegates.markForRemoval(i)
-            target.onRemoved(i - removed++, 1)
-        }
-        return if (removed > 0) {
-            items.commitRemovals()
-            itemDelegates.commitRemovals()
+        // compact items in place and remember removed ranges,
+        // predicate may look at items[i] and itemDelegates[i] which are not overwritten yet
+        val ranges = RemovedRanges()
+        var items = items
+        val size = items.size
+        var kept = 0
+        for (i in 0 until size) {
+            val item = items[i]
+            if (predicate(i)) {
+                if (ranges.count == 0) { // no-op removals neither count as mutations nor copy shared storage
+                    beforeMutation()
+                    items = this.items
+                }
+                itemIndex?.run { if (item === LongSlot) removeLong(longs!![i]) else remove(item) }
+                ranges.add(i)
+            } else {
+                if (kept != i) items[kept] = item
+                kept++
+            }
+        }
+        return if (kept < size) {
+            items.removeRange(kept, size)
+            longs?.removeRanges(ranges)
+            itemDelegates.removeRanges(ranges.ranges, ranges.count)
+            ranges.forEachRemoval(updates::onRemoved)
             true
         } else false
     }
 
     fun clear() {
         if (!isEmpty) {
+            beforeMutation()
             val size = items.size
             items.clear()
+            longs?.clear()
+            itemIndex?.clear()
             itemDelegates.clear()
-            target.onRemoved(0, size)
+            updates.onRemoved(0, size)
+        }
+    }
+
+    /**
+     * Returns an immutable view of the current state which can be read from any thread.
+     * Storage is shared with this Delegapter and copied lazily when this one gets mutated:
+     * [chunked storage][chunkedStorage] copies only the blocks being written to,
+     * array storage gets cloned as a whole on the first mutation after a snapshot.
+     * Thus use chunked storage for long lists mutated while snapshots are in use, e.g. by [replaceAsync].
+     * Taking a snapshot costs `O(runs of delegates + items / 256)`.
+     * The primitive lane of [LongDelegate] items, if any, is chunked and shared the same way.
+     */
+    fun snapshot(): Delegapter {
+        val items = items
+        shared = true
+        return Snapshot(if (items is ChunkedList) items.cowCopy() else items, itemDelegates.copy(), longs?.copy())
+    }
+    private fun beforeMutation() {
+        modCount++
+        if (shared) {
+            shared = false
+            items.let { if (it !is ChunkedList) items = RemoveRangeArrayList(it) }
+        }
+    }
+
+    /**
+     * Enables or disables hash index of items.
+     * With index enabled, [contains] and [containsAll] are O(1) per element,
+     * lookups of absent items by [indexOf] and [remove] are O(1),
+     * and [removeAll]/[retainAll] are always a single linear pass.
+     * The index costs a hash table entry per distinct item and is updated by every mutation.
+     * @param byIdentity look up items by identity (`===`) rather than by equality
+     */
+    fun indexItems(enable: Boolean = true, byIdentity: Boolean = false) {
+        itemIndex = if (enable) ItemIndex(byIdentity).also { it.addAll(items, longs) } else null
+    }
+
+    /**
+     * Runs [block] as a single transaction:
+     * notifications about adjacent insertions, removals, and changes get merged,
+     * changes and removals of just inserted items are swallowed,
+     * and an event reaches target only when it can't be merged with the next one or [block] finishes.
+     * May be nested.
+     */
+    inline fun batch(block: MutableDelegapter.() -> Unit) {
+        beginBatch()
+        try {
+            block()
+        } finally {
+            endBatch()
+        }
+    }
+    @PublishedApi internal fun beginBatch() {
+        if (batchDepth++ == 0)
+            updates = batching ?: BatchingCallback(target).also { batching = it }
+    }
+    @PublishedApi internal fun endBatch() {
+        if (--batchDepth == 0) {
+            updates = target
+            batching!!.dispatchLastEvent()
         }
     }
 
@@ -180,43 +499,278 @@ class MutableDelegapter(
         commit(detectMoves, DiffDelegapter(initialItemCapacity).apply(block))
     }
     @PublishedApi internal fun commit(detectMoves: Boolean, tmp: DiffDelegapter) {
+        generation++ // supersede pending replaceAsync()
         val differ = differ ?: Differ().also { differ = it }
         differ.old = this
         differ.new = tmp
-        DiffUtil.calculateDiff(differ, detectMoves).dispatchUpdatesTo(target)
+        val listener = diffListener
+        val stats = if (listener == null) null else DiffStats(size, tmp.size)
+        val dispatch = differ.calculate(detectMoves, diffPolicy, stats)
+        lastDiffPath = differ.path
+        updates.dispatchCounting(stats, dispatch)
         differ.old = null
         differ.new = null
         tmp.commit()
+        listener?.onDiff(stats!!)
+    }
+
+    /**
+     * Like [replace], but runs [block] and computes the diff on [executor].
+     * The result is applied on the main thread unless superseded by a newer [replace] or [replaceAsync] call.
+     * If this Delegapter gets mutated while diffing, the diff is computed again against the new state.
+     * Such a mutation clones array storage, see [snapshot].
+     * After a few such attempts, the diff is computed on the main thread to avoid chasing a list which keeps changing.
+     * [block] must not touch this Delegapter.
+     * @param mainThread where the result is applied, main [Looper] by default
+     */
+    fun replaceAsync(
+        executor: Executor, detectMoves: Boolean = true, initialItemCapacity: Int = -1,
+        mainThread: Executor = mainThread(), block: Delegapter.() -> Unit,
+    ) {
+        val generation = ++generation
+        val old = snapshot()
+        val modCount = modCount
+        executor.execute {
+            if (generation == this.generation) {
+                val new = DelegapterBuilder(initialItemCapacity, chunkedStorage).apply(block)
+                diffAsync(executor, mainThread, detectMoves, generation, old, modCount, new, 1)
+            }
+        }
+    }
+    private fun mainThread(): Executor {
+        val handler = handler ?: Handler(Looper.getMainLooper()).also { handler = it }
+        return Executor { handler.post(it) }
+    }
+
+    /**
+     * Like [replace], but compares items on the main thread in slices of [frameBudgetNanos] per frame of [scheduler],
+     * and applies the result atomically when done, unless superseded by a newer [replace] call.
+     * If this Delegapter gets mutated meanwhile, comparison restarts against the new state.
+     * Both trimming of common head and tail, which dominates when few items change,
+     * and matching of the window left [by keys][DiffDelegate.keyOf] are resumable.
+     * A window of items without keys is diffed by [DiffUtil] at once, in a frame of its own, as [diffPolicy] says.
+     * Use [replaceAsync] to keep such windows off the main thread.
+     */
+    inline fun replaceSliced(
+        scheduler: FrameScheduler = FrameScheduler.Choreographer, frameBudgetNanos: Long = 4_000_000L,
+        detectMoves: Boolean = true, initialItemCapacity: Int = -1, block: Delegapter.() -> Unit,
+    ) {
+        commitSliced(scheduler, frameBudgetNanos, detectMoves, DiffDelegapter(initialItemCapacity).apply(block))
+    }
+    @PublishedApi internal fun commitSliced(
+        scheduler: FrameScheduler, frameBudgetNanos: Long, detectMoves: Boolean, tmp: DiffDelegapter,
+    ) {
+        SlicedDiff(scheduler, frameBudgetNanos, detectMoves, ++generation, tmp).restart()
+    }
+    private inner class SlicedDiff(
+        private val scheduler: FrameScheduler,
+        private val frameBudgetNanos: Long,
+        private val detectMoves: Boolean,
+        private val generation: Int,
+        private val tmp: DiffDelegapter,
+    ) : () -> Unit {
+        private val differ = Differ()
+        private var window: TrimmedCallback? = null
+        private var keyed: KeyedDiff.Calculation? = null
+        private var stats: DiffStats? = null
+        private var modCount = 0
+        private var stage = TRIMMING
+
+        fun restart() {
+            differ.old = this@MutableDelegapter // no snapshot needed: any mutation restarts comparison
+            differ.new = tmp
+            stats = if (diffListener == null) null else DiffStats(size, tmp.size)
+            window = differ.trimmed(stats)
+            keyed = null
+            modCount = this@MutableDelegapter.modCount
+            stage = TRIMMING
+            scheduler.postFrameCallback(this)
+        }
+
+        override fun invoke() {
+            if (generation != this@MutableDelegapter.generation) return // superseded
+            if (modCount != this@MutableDelegapter.modCount) return restart()
+            val window = window!!
+            val stats = stats
+            val start = scheduler.nanoTime()
+            val deadline = start + frameBudgetNanos
+            if (stage == TRIMMING) {
+                while (!window.trim(SLICE_STEPS))
+                    scheduler.nanoTime().let { if (it >= deadline) return pause(start, it) }
+                if (window.oldListSize == 0 || window.newListSize == 0) {
+                    stage = DIFFING
+                } else {
+                    keyed = KeyedDiff.Calculation(this@MutableDelegapter, tmp, window.head, window, detectMoves)
+                    stage = MATCHING
+                }
+            }
+            val keyed = keyed
+            if (stage == MATCHING) {
+                while (!keyed!!.advance(SLICE_STEPS))
+                    scheduler.nanoTime().let { if (it >= deadline) return pause(start, it) }
+                if (keyed.result == null) { // DiffUtil can't be sliced, give it a whole frame
+                    stage = DIFFING
+                    return pause(start, scheduler.nanoTime())
+                }
+            }
+
+            stats?.let { it.diffNanos += scheduler.nanoTime() - start }
+            val result = keyed?.result
+            val dispatch =
+                if (result != null) differ.dispatchKeyed(result, stats, window)
+                else differ.calculate(detectMoves, diffPolicy, stats, window, byKeys = false)
+            this@MutableDelegapter.generation++
+            lastDiffPath = differ.path
+            updates.dispatchCounting(stats, dispatch)
+            tmp.commit()
+            if (stats != null) diffListener?.onDiff(stats)
+        }
+
+        private fun pause(start: Long, now: Long) {
+            stats?.let { it.diffNanos += now - start }
+            scheduler.postFrameCallback(this)
+        }
+    }
+
+    /**
+     * Makes pending [replaceAsync] and [replaceSliced] calls no-op.
+     */
+    fun cancelPendingReplace() {
+        generation++
+    }
+
+    // runs on executor
+    private fun diffAsync(
+        executor: Executor, mainThread: Executor, detectMoves: Boolean,
+        generation: Int, old: Delegapter, modCount: Int, new: DelegapterBuilder, attempt: Int,
+    ) {
+        val differ = Differ()
+        differ.old = old
+        differ.new = new
+        val stats = if (diffListener == null) null else DiffStats(old.size, new.size)
+        val dispatch = differ.calculate(detectMoves, diffPolicy, stats)
+        val path = differ.path
+        mainThread.execute {
+            when {
+                generation != this.generation ->
+                    Unit // superseded
+                modCount != this.modCount && attempt < MAX_ASYNC_DIFFS -> { // mutated meanwhile, diff against current state
+                    val current = snapshot()
+                    val currentModCount = this.modCount
+                    executor.execute {
+                        if (generation == this.generation)
+                            diffAsync(executor, mainThread, detectMoves, generation, current, currentModCount, new, attempt + 1)
+                    }
+                }
+                modCount != this.modCount -> // keeps getting mutated, stop chasing it
+                    adoptDiffing(detectMoves, new)
+                else -> {
+                    lastDiffPath = path
+                    updates.dispatchCounting(stats, dispatch)
+                    adopt(new)
+                    if (stats != null) diffListener?.onDiff(stats)
+                }
+            }
+        }
     }
+
+    // extracted rare path, don't bother JIT
+    private fun adoptDiffing(detectMoves: Boolean, new: DelegapterBuilder) {
+        val differ = differ ?: Differ().also { differ = it }
+        differ.old = this
+        differ.new = new
+        val listener = diffListener
+        val stats = if (listener == null) null else DiffStats(size, new.size)
+        val dispatch = differ.calculate(detectMoves, diffPolicy, stats)
+        lastDiffPath = differ.path
+        updates.dispatchCounting(stats, dispatch)
+        differ.old = null
+        differ.new = null
+        adopt(new)
+        listener?.onDiff(stats!!)
+    }
+
     @PublishedApi internal inner class DiffDelegapter
-    @PublishedApi internal constructor(initialItemCapacity: Int) : Delegapter(initialItemCapacity) {
+    @PublishedApi internal constructor(initialItemCapacity: Int) : Delegapter(initialItemCapacity, chunkedStorage) {
         override fun <D> add(delegate: DiffDelegate<in D>, item: D, atIndex: Int) {
+            if (delegate is LongDelegate) return add(delegate, item as Long, atIndex)
             items.add(atIndex, item)
-            itemDelegates.add(atIndex, delegate)
-            tryAddDelegate(delegate)
+            longs?.insert(atIndex, 1)
+            itemDelegates.add(atIndex, delegate, 1, tryAddDelegate(delegate))
         }
         override fun <D> set(delegate: DiffDelegate<in D>, item: D, atIndex: Int) {
+            if (delegate is LongDelegate) return set(delegate, item as Long, atIndex)
             items[atIndex] = item
-            itemDelegates[atIndex] = delegate
-            tryAddDelegate(delegate)
+            itemDelegates.set(atIndex, delegate, tryAddDelegate(delegate))
         }
         override fun <D> addAll(delegate: DiffDelegate<in D>, items: Collection<D>, atIndex: Int) {
+            if (delegate is LongDelegate)
+                return addAll(delegate, @Suppress("UNCHECKED_CAST") (items as Collection<Long>).toLongArray(), atIndex)
             if (items.isNotEmpty()) {
                 this.items.addAll(atIndex, items)
-                (repeat ?: RepeatList<Delegate<*>>().also { repeat = it })
-                    .of(delegate, items.size) { itemDelegates.addAll(atIndex, it) }
-                tryAddDelegate(delegate)
+                longs?.insert(atIndex, items.size)
+                itemDelegates.add(atIndex, delegate, items.size, tryAddDelegate(delegate))
+            }
+        }
+        override fun add(delegate: LongDelegate, item: Long, atIndex: Int) {
+            val longs = longLane()
+            items.add(atIndex, LongSlot)
+            longs.insert(atIndex, 1)
+            longs[atIndex] = item
+            itemDelegates.add(atIndex, delegate, 1, tryAddDelegate(delegate))
+        }
+        override fun set(delegate: LongDelegate, item: Long, atIndex: Int) {
+            val longs = longLane()
+            items[atIndex] = LongSlot
+            longs[atIndex] = item
+            itemDelegates.set(atIndex, delegate, tryAddDelegate(delegate))
+        }
+        override fun addAll(delegate: LongDelegate, items: LongArray, atIndex: Int) {
+            if (items.isNotEmpty()) {
+                val longs = longLane()
+                this.items.addAll(atIndex, Collections.nCopies(items.size, LongSlot))
+                longs.insert(atIndex, items.size)
+                longs.setAll(atIndex, items)
+                itemDelegates.add(atIndex, delegate, items.size, tryAddDelegate(delegate))
             }
         }
 
         fun commit() {
             this@MutableDelegapter.items = items
+            this@MutableDelegapter.longs = longs
             this@MutableDelegapter.itemDelegates = itemDelegates
+            shared = false
+            modCount++
+            this@MutableDelegapter.itemIndex?.run { clear(); addAll(items, longs) }
         }
     }
 
+    /**
+     * Returns [stable id][RecyclerView.Adapter.getItemId] of the item at [position]:
+     * [DiffDelegate.itemIdOf] in lower 48 bits and viewType in upper 16 ones,
+     * thus ids of items of different delegates never collide.
+     * Returns [RecyclerView.NO_ID] if the delegate gives no id.
+     * @throws IllegalStateException if the id doesn't fit 48 bits or viewType doesn't fit 16 bits
+     */
+    fun itemIdAt(position: Int): Long {
+        @Suppress("UNCHECKED_CAST")
+        val id = when (val delegate = delegateAt(position)) {
+            is LongDelegate -> delegate.itemIdOf(longAt(position)) // unboxed
+            is DiffDelegate<*> -> (delegate as DiffDelegate<Any?>).itemIdOf(itemAt(position))
+            else -> RecyclerView.NO_ID
+        }
+        if (id == RecyclerView.NO_ID) return id
+        val viewType = viewTypeAt(position)
+        if ((id shl (64 - ITEM_ID_BITS) shr (64 - ITEM_ID_BITS)) != id || viewType ushr (64 - ITEM_ID_BITS) != 0)
+            throw idOverflow(id, viewType)
+        return (viewType.toLong() shl ITEM_ID_BITS) or (id and ((1L shl ITEM_ID_BITS) - 1))
+    }
+    private fun idOverflow(id: Long, viewType: Int) = // extracted rare path, don't bother JIT with StringBuilder chain
+        IllegalStateException("item id $id doesn't fit $ITEM_ID_BITS bits or viewType $viewType doesn't fit ${64 - ITEM_ID_BITS}")
+
+    // viewTypes are cached per run of delegates, no hashing here
     fun viewTypeAt(position: Int): Int =
-        viewTypeMap[itemDelegates[position]]!!
+        itemDelegates.tagAt(position).let { if (it < 0) viewTypeMap[itemDelegates[position]]!! else it }
 
     @Deprecated("I'm a data structure, not an Adapter", ReplaceWith("this.forViewType(viewType)(parent)"))
     fun createViewHolder(parent: ViewGroup, viewType: Int): VH<*, *, *> =
@@ -227,7 +781,7 @@ class MutableDelegapter(
 
     @Deprecated("I'm a data structure, not an Adapter", ReplaceWith("(holder as VH<*, *, Any?>).bind(this.itemAt(position), position, payloads)"))
     fun bindViewHolder(holder: VH<*, *, *>, position: Int, payloads: List<Any> = emptyList()): Unit =
-        @Suppress("UNCHECKED_CAST") (holder as VH<*, *, Any?>).bind(items[position], position, payloads)
+        @Suppress("UNCHECKED_CAST") (holder as VH<*, *, Any?>).bind(itemAt(position), position, payloads)
 
     /**
      * Get `viewType` of the [delegate] in this Delegapter or its parent, or `-1`,
@@ -241,31 +795,156 @@ class MutableDelegapter(
      * Adds [delegate] if absent.
      * Useful when configuring [androidx.recyclerview.widget.RecyclerView.RecycledViewPool].
      */
-    fun forceViewTypeOf(delegate: Delegate<*>): Int {
+    fun forceViewTypeOf(delegate: Delegate<*>): Int =
         tryAddDelegate(delegate)
-        return viewTypeMap[delegate]!!
-    }
 
 }
 
 @Suppress("UNCHECKED_CAST") private class Differ : DiffUtil.Callback() {
     @JvmField var old: Delegapter? = null
     @JvmField var new: Delegapter? = null
+    @JvmField var path: DiffPath? = null // chosen by the latest calculation
+
+    fun trimmed(stats: DiffStats?): TrimmedCallback =
+        TrimmedCallback(if (stats == null) this else CountingCallback(this, stats))
+
+    /**
+     * Trims common head and tail unless [window] is already trimmed,
+     * then diffs the rest by keys, or with [DiffUtil] as decided by [policy].
+     * [old] and [new] must stay in place until the returned dispatcher is invoked.
+     * @param stats receives callback counts, diff time, and chosen path
+     * @param byKeys `false` if [window] is already known to be not diffable by keys
+     */
+    fun calculate(
+        detectMoves: Boolean, policy: DiffPolicy, stats: DiffStats? = null, window: TrimmedCallback? = null,
+        byKeys: Boolean = true,
+    ): (ListUpdateCallback) -> Unit {
+        if (stats == null) return calculateIn(detectMoves, policy, null, window ?: trimmed(null).trim(), byKeys)
+        val start = System.nanoTime()
+        val dispatch = calculateIn(detectMoves, policy, stats, window ?: trimmed(stats).trim(), byKeys)
+        stats.diffNanos += System.nanoTime() - start
+        return dispatch
+    }
+
+    private fun calculateIn(
+        detectMoves: Boolean, policy: DiffPolicy, stats: DiffStats?, window: TrimmedCallback, byKeys: Boolean,
+    ): (ListUpdateCallback) -> Unit {
+        val head = window.head
+        val removed = window.oldListSize
+        val inserted = window.newListSize
+        if (removed == 0 || inserted == 0) {
+            chose(DiffPath.Trimmed, stats)
+            return { target -> // e.g. a page appended or prepended
+                if (inserted > 0) target.onInserted(head, inserted)
+                else if (removed > 0) target.onRemoved(head, removed)
+            }
+        }
+
+        val keyed = if (byKeys) KeyedDiff.calculate(old!!, new!!, window.head, window, detectMoves) else null
+        if (keyed != null) return dispatchKeyed(keyed, stats, window)
+
+        val edits = // nothing to decide otherwise, don't spend comparisons
+            if ((detectMoves && policy.maxMoveEdits != Int.MAX_VALUE) || policy.maxCost != Long.MAX_VALUE)
+                estimateEdits(window, policy.sampleSize) else 0
+        if ((removed + inserted).toLong() * edits > policy.maxCost) {
+            chose(DiffPath.RangeChanged, stats)
+            return { target ->
+                val common = minOf(removed, inserted)
+                target.onChanged(head, common, null)
+                if (inserted > common) target.onInserted(head + common, inserted - common)
+                else if (removed > common) target.onRemoved(head + common, removed - common)
+            }
+        }
+        val moves = detectMoves && edits <= policy.maxMoveEdits
+        chose(if (moves) DiffPath.Myers else DiffPath.MyersWithoutMoves, stats)
+        val result = DiffUtil.calculateDiff(window, moves)
+        return { target -> result.dispatchUpdatesTo(window.offset(target)) }
+    }
+
+    fun dispatchKeyed(keyed: KeyedDiff, stats: DiffStats?, window: TrimmedCallback): (ListUpdateCallback) -> Unit {
+        chose(DiffPath.Keyed, stats)
+        return { target -> keyed.dispatchUpdatesTo(window.offset(target)) }
+    }
+
+    private fun chose(path: DiffPath, stats: DiffStats?) {
+        this.path = path
+        stats?.path = path
+    }
+
+    /**
+     * Estimates edit distance of [window] as its size difference, or as the share of sampled positions
+     * where an item is the same neither as one at the same position nor at the position shifted by size difference,
+     * whichever is greater.
+     */
+    private fun estimateEdits(window: TrimmedCallback, sampleSize: Int): Int {
+        val oldSize = window.oldListSize
+        val newSize = window.newListSize
+        val shift = newSize - oldSize
+        val common = minOf(oldSize, newSize)
+        val sample = minOf(sampleSize, common)
+        if (sample == 0) return abs(shift)
+        var mismatches = 0
+        for (k in 0 until sample) {
+            val o = (k.toLong() * common / sample).toInt()
+            val n = if (shift > 0) o + shift else o
+            val p = if (shift < 0) o - shift else o
+            if (!window.areItemsTheSame(o, o) && (shift == 0 || !window.areItemsTheSame(p, n))) mismatches++
+        }
+        return maxOf(abs(shift), (mismatches.toLong() * common / sample).toInt())
+    }
+
     override fun getOldListSize(): Int = old!!.size
     override fun getNewListSize(): Int = new!!.size
+    // cheap identity check first, usually true for retained items while trimming
+    // Long values are compared unboxed
+    private fun identical(oldItemPosition: Int, newItemPosition: Int): Boolean {
+        val delegate = old!!.delegateAt(oldItemPosition)
+        return delegate === new!!.delegateAt(newItemPosition) &&
+            if (delegate is LongDelegate) old!!.longAt(oldItemPosition) == new!!.longAt(newItemPosition)
+            else old!!.itemAt(oldItemPosition).let { it != null && it === new!!.itemAt(newItemPosition) }
+    }
     override fun areItemsTheSame(oldItemPosition: Int, newItemPosition: Int): Boolean =
-        new!!.delegateAt(newItemPosition).let {
-            it == old!!.delegateAt(oldItemPosition) &&
-                (it as DiffUtil.ItemCallback<Any>)
+        identical(oldItemPosition, newItemPosition) || new!!.delegateAt(newItemPosition).let {
+            it == old!!.delegateAt(oldItemPosition) && when (it) {
+                is LongDelegate -> // unboxed
+                    it.areItemsTheSame(old!!.longAt(oldItemPosition), new!!.longAt(newItemPosition))
+                else -> (it as DiffUtil.ItemCallback<Any>)
                     .areItemsTheSame(old!!.itemAt(oldItemPosition)!!, new!!.itemAt(newItemPosition)!!)
+            }
         }
     override fun areContentsTheSame(oldItemPosition: Int, newItemPosition: Int): Boolean =
-        new!!.delegateAt(newItemPosition).let {
-            it == old!!.delegateAt(oldItemPosition) &&
-                (it as DiffUtil.ItemCallback<Any>)
+        identical(oldItemPosition, newItemPosition) || new!!.delegateAt(newItemPosition).let {
+            it == old!!.delegateAt(oldItemPosition) && when (it) {
+                is LongDelegate -> // unboxed
+                    it.areContentsTheSame(old!!.longAt(oldItemPosition), new!!.longAt(newItemPosition))
+                else -> (it as DiffUtil.ItemCallback<Any>)
                     .areContentsTheSame(old!!.itemAt(oldItemPosition)!!, new!!.itemAt(newItemPosition)!!)
+            }
         }
     override fun getChangePayload(oldItemPosition: Int, newItemPosition: Int): Any? =
-        (new!!.delegateAt(newItemPosition).takeIf { it == old!!.delegateAt(oldItemPosition) } as DiffUtil.ItemCallback<Any>?)
-            ?.getChangePayload(old!!.itemAt(oldItemPosition)!!, new!!.itemAt(newItemPosition)!!)
+        new!!.delegateAt(newItemPosition).let {
+            if (it != old!!.delegateAt(oldItemPosition)) null
+            else if (it is LongDelegate) // unboxed
+                it.getChangePayload(old!!.longAt(oldItemPosition), new!!.longAt(newItemPosition))
+            else (it as DiffUtil.ItemCallback<Any>)
+                .getChangePayload(old!!.itemAt(oldItemPosition)!!, new!!.itemAt(newItemPosition)!!)
+        }
+}
+
+private class Snapshot(
+    items: RemoveRangeMutableList<Any?>, itemDelegates: RunLengthList<Delegate<*>>, longs: LongList?,
+) : Delegapter(0) {
+    init {
+        this.items = items
+        this.itemDelegates = itemDelegates
+        this.longs = longs
+    }
+    override fun <D> add(delegate: DiffDelegate<in D>, item: D, atIndex: Int): Unit = readOnly()
+    override fun <D> set(delegate: DiffDelegate<in D>, item: D, atIndex: Int): Unit = readOnly()
+    override fun <D> addAll(delegate: DiffDelegate<in D>, items: Collection<D>, atIndex: Int): Unit = readOnly()
+    override fun add(delegate: LongDelegate, item: Long, atIndex: Int): Unit = readOnly()
+    override fun set(delegate: LongDelegate, item: Long, atIndex: Int): Unit = readOnly()
+    override fun addAll(delegate: LongDelegate, items: LongArray, atIndex: Int): Unit = readOnly()
+    private fun readOnly(): Nothing =
+        throw UnsupportedOperationException("snapshots are immutable")
 }
@@ -0,0 +1,152 @@
+package net.aquadc.delegapter
+
+import java.util.Collections
+
+/**
+ * Fills [data] with [totalCount] placeholders and replaces them with real items page by page,
+ * as they get close to the visible window.
+ * Pages far from the window are evicted and turn back into placeholders when more than [maxLoadedPages] are held.
+ * Both loading and eviction notify with [androidx.recyclerview.widget.ListUpdateCallback.onChanged] only,
+ * adjacent pages are coalesced into a single event.
+ * Main thread only.
+ * @author Mike Gorünóv
+ *
+ * @param data delegapter to take over, e.g. [net.aquadc.delegapter.adapter.DelegatedAdapter.data]
+ * @param placeholder delegate to bind `null` at positions which are not loaded yet
+ * @param pageSize how many items to request at once
+ * @param prefetchPages how many pages before and after the visible window to keep loaded
+ * @param maxLoadedPages how many pages to keep in memory, least recently visible get evicted first
+ * @param loader requests pages; results must be passed to [setPage] on the main thread
+ */
+class PagedDelegapter(
+    @JvmField val data: MutableDelegapter,
+    totalCount: Int,
+    private val placeholder: Delegate<Nothing?>,
+    private val pageSize: Int,
+    private val prefetchPages: Int = 1,
+    private val maxLoadedPages: Int = 8,
+    private val loader: PageLoader,
+) {
+
+    fun interface PageLoader {
+        /**
+         * Start loading [count] items starting from [position] which form page number [page].
+         */
+        fun load(page: Int, position: Int, count: Int)
+    }
+
+    // page -> LOADED or LOADING, in access order, thus eldest are least recently visible
+    private val pages = LinkedHashMap<Int, Boolean>(16, .75f, true)
+    private var windowFrom = 0 // visible pages including prefetched ones, inclusive
+    private var windowTo = -1
+    private var firstVisible = -1
+    private var lastVisible = -1
+
+    init {
+        require(pageSize > 0 && maxLoadedPages > 0)
+        data.clear()
+        data.addAll(placeholder, Collections.nCopies(totalCount, null))
+    }
+
+    var totalCount: Int = totalCount
+        set(value) {
+            require(value >= 0)
+            if (field != value) {
+                // forget pages which become incomplete or vanish, they will be requested again
+                val lastPage = minOf(field, value) / pageSize
+                val lastLoaded = pages.remove(lastPage) == true
+                pages.keys.removeAll { it > lastPage }
+                val old = field
+                field = value
+                data.batch {
+                    if (value > old) addAll(placeholder, Collections.nCopies(value - old, null))
+                    else removeRange(value, old)
+                    val from = lastPage * pageSize // loaded items of the forgotten page which are still there
+                    val to = minOf(old, value)
+                    if (lastLoaded && from < to) setAll(placeholder, Collections.nCopies(to - from, null), from)
+                }
+            }
+        }
+
+    /**
+     * Number of pages which are loaded or being loaded.
+     */
+    val loadedPages: Int
+        get() = pages.size
+
+    /**
+     * Call when visible positions change, e.g. from [androidx.recyclerview.widget.RecyclerView.OnScrollListener].
+     * Requests missing pages around the window and evicts ones beyond [maxLoadedPages].
+     */
+    fun onVisibleRange(firstPosition: Int, lastPosition: Int) {
+        firstVisible = firstPosition
+        lastVisible = lastPosition
+        if (totalCount == 0 || lastPosition < firstPosition) return
+        val pageCount = (totalCount + pageSize - 1) / pageSize
+        val first = (firstPosition / pageSize).coerceIn(0, pageCount - 1)
+        val last = (lastPosition / pageSize).coerceIn(first, pageCount - 1)
+        windowFrom = maxOf(0, first - prefetchPages)
+        windowTo = minOf(pageCount - 1, last + prefetchPages)
+
+        // visible pages first, then prefetched ones from the nearest
+        for (page in first..last) touch(page)
+        for (d in 1..prefetchPages) {
+            if (last + d <= windowTo) touch(last + d)
+            if (first - d >= windowFrom) touch(first - d)
+        }
+        trim()
+    }
+
+    /**
+     * Replaces placeholders of [page] with items of [from].
+     * Ignored if the page was evicted or invalidated while loading.
+     */
+    fun setPage(page: Int, from: Delegapter) {
+        val loaded = pages[page] ?: return
+        val position = page * pageSize
+        val count = minOf(pageSize, totalCount - position)
+        require(from.size == count) { "page $page must have $count items, got ${from.size}" }
+        data.setAll(from, 0, count, position)
+        if (!loaded) pages[page] = true
+        trim()
+    }
+
+    /**
+     * Turns all pages back into placeholders and requests visible ones again.
+     */
+    fun invalidate() {
+        data.batch {
+            for ((page, loaded) in pages) if (loaded) evict(page)
+        }
+        pages.clear()
+        onVisibleRange(firstVisible, lastVisible)
+    }
+
+    private fun touch(page: Int) {
+        if (pages[page] == null) { // get() also updates access order
+            pages[page] = false
+            loader.load(page, page * pageSize, minOf(pageSize, totalCount - page * pageSize))
+        }
+    }
+
+    private fun trim() {
+        var excess = pages.size - maxLoadedPages
+        if (excess <= 0) return
+        data.batch {
+            val iter = pages.entries.iterator()
+            while (excess > 0 && iter.hasNext()) {
+                val (page, loaded) = iter.next()
+                if (page in windowFrom..windowTo) continue // never evict what's going to be visible
+                if (loaded) evict(page)
+                iter.remove()
+                excess--
+            }
+        }
+    }
+
+    private fun evict(page: Int) {
+        val position = page * pageSize
+        data.setAll(placeholder, Collections.nCopies(minOf(pageSize, totalCount - position), null), position)
+    }
+
+}
@@ -0,0 +1,352 @@
+package net.aquadc.delegapter
+
+import java.util.Arrays
+
+/**
+ * [MutableList] which stores each run of identical (`===`) adjacent elements once.
+ * Positional access is `O(log runs)`, or `O(1)` when iterating sequentially;
+ * insertions and removals are `O(runs)` regardless of how many elements they affect.
+ * Each run may carry an `Int` tag which must be a function of the element, `-1` means no tag.
+ * @author Mike Gorünóv
+ */
+class RunLengthList<E> internal constructor(initialRunCapacity: Int) :
+    AbstractMutableList<E>(), RemoveRangeMutableList<E>, RandomAccess {
+
+    private var ends: IntArray = IntArray(if (initialRunCapacity < 0) 8 else initialRunCapacity) // exclusive
+    private var elements: Array<Any?> = arrayOfNulls(ends.size)
+    private var tags: IntArray = IntArray(ends.size)
+    private var runs = 0
+    private var lastRun = 0 // sequential access cache
+
+    override val size: Int
+        get() = if (runs == 0) 0 else ends[runs - 1]
+
+    override fun get(index: Int): E {
+        if (index !in 0 until size) throw oob(index)
+        @Suppress("UNCHECKED_CAST")
+        return elements[runAt(index)] as E
+    }
+
+    /**
+     * Returns tag of the run containing [index], or `-1`.
+     */
+    fun tagAt(index: Int): Int {
+        if (index !in 0 until size) throw oob(index)
+        return tags[runAt(index)]
+    }
+
+    /**
+     * Returns exclusive end of the run containing [index],
+     * i.e. the first position where an element different from `this[index]` could be found.
+     */
+    fun runEnd(index: Int): Int {
+        if (index !in 0 until size) throw oob(index)
+        return ends[runAt(index)]
+    }
+
+    override fun add(index: Int, element: E): Unit =
+        add(index, element, 1)
+
+    /**
+     * Inserts [element] repeated [times] at [index].
+     */
+    fun add(index: Int, element: E, times: Int, tag: Int = -1) {
+        val size = size
+        if (index !in 0..size) throw oob(index)
+        require(times >= 0)
+        if (times == 0) return
+        modCount++
+
+        if (index == size) {
+            if (runs > 0 && elements[runs - 1] === element) extend(runs - 1, times, tag)
+            else insertRun(runs, element, size + times, tag)
+            return
+        }
+
+        val r = runAt(index)
+        val start = startOf(r)
+        when {
+            elements[r] === element ->
+                extend(r, times, tag)
+            index == start && r > 0 && elements[r - 1] === element ->
+                extend(r - 1, times, tag)
+            index == start -> {
+                insertRun(r, element, start, tag)
+                shift(r, times)
+            }
+            else -> { // split
+                val end = ends[r]
+                ends[r] = index
+                insertRun(r + 1, element, index + times, tag)
+                insertRun(r + 2, elements[r], end, tags[r])
+                shift(r + 2, times)
+            }
+        }
+    }
+
+    /**
+     * Inserts elements of [from] in range [[fromIndex], [toIndex]) at [index] run by run.
+     */
+    fun addAll(index: Int, from: RunLengthList<out E>, fromIndex: Int = 0, toIndex: Int = from.size) {
+        if (index !in 0..size) throw oob(index)
+        require(fromIndex in 0..toIndex && toIndex <= from.size)
+        var at = index
+        var i = fromIndex
+        while (i < toIndex) {
+            val end = minOf(from.runEnd(i), toIndex)
+            add(at, from[i], end - i, from.tagAt(i))
+            at += end - i
+            i = end
+        }
+    }
+
+    override fun addAll(index: Int, elements: Collection<E>): Boolean {
+        if (elements is RunLengthList<*>) {
+            @Suppress("UNCHECKED_CAST")
+            addAll(index, elements as RunLengthList<E>, 0, elements.size)
+            return elements.isNotEmpty()
+        }
+        return super.addAll(index, elements)
+    }
+
+    override fun set(index: Int, element: E): E =
+        set(index, element, -1)
+
+    fun set(index: Int, element: E, tag: Int): E {
+        val old = get(index)
+        if (old !== element) {
+            removeRange(index, index + 1)
+            add(index, element, 1, tag)
+        } else if (tag >= 0) {
+            tags[runAt(index)] = tag
+        }
+        return old
+    }
+
+    /**
+     * Moves [count] elements starting from [fromIndex] so that they start from [toIndex] afterwards.
+     */
+    fun move(fromIndex: Int, count: Int, toIndex: Int) {
+        if (fromIndex < 0 || count < 0 || fromIndex + count > size) throw oob(fromIndex, fromIndex + count)
+        if (toIndex < 0 || toIndex + count > size) throw oob(toIndex, toIndex + count)
+        if (fromIndex == toIndex || count == 0) return
+        val moving = RunLengthList<E>(2)
+        moving.addAll(0, this, fromIndex, fromIndex + count)
+        removeRange(fromIndex, fromIndex + count)
+        addAll(toIndex, moving, 0, count)
+    }
+
+    override fun removeAt(index: Int): E {
+        val old = get(index)
+        removeRange(index, index + 1)
+        return old
+    }
+
+    override fun removeRange(fromIndex: Int, toIndex: Int) {
+        if (fromIndex < 0 || toIndex > size || fromIndex > toIndex) throw oob(fromIndex, toIndex)
+        val count = toIndex - fromIndex
+        if (count == 0) return
+        modCount++
+
+        val rFrom = runAt(fromIndex)
+        val rTo = runAt(toIndex - 1)
+        val fromStart = startOf(rFrom)
+        val toEnd = ends[rTo]
+        shift(rTo, -count)
+        if (rFrom == rTo) {
+            if (ends[rFrom] == fromStart) {
+                dropRuns(rFrom, rFrom + 1)
+                mergeWithNext(rFrom - 1)
+            }
+        } else {
+            ends[rFrom] = fromIndex
+            val dropFrom = if (fromIndex == fromStart) rFrom else rFrom + 1
+            dropRuns(dropFrom, if (toIndex == toEnd) rTo + 1 else rTo)
+            mergeWithNext(dropFrom - 1)
+        }
+    }
+
+    /**
+     * Removes several ranges in a single pass over runs.
+     * @param ranges sorted non-overlapping (start, endExclusive) pairs
+     */
+    internal fun removeRanges(ranges: IntArray, rangeCount: Int) {
+        if (rangeCount == 0) return
+        modCount++
+        var w = 0 // output run count, never exceeds r
+        var removed = 0
+        var q = 0 // current range
+        var start = 0
+        for (r in 0 until runs) {
+            val end = ends[r]
+            var rem = 0
+            while (q < rangeCount && ranges[2 * q] < end) {
+                val s = maxOf(ranges[2 * q], start)
+                val e = minOf(ranges[2 * q + 1], end)
+                if (e > s) rem += e - s
+                if (ranges[2 * q + 1] <= end) q++ else break
+            }
+            removed += rem
+            if (end - start > rem) {
+                val element = elements[r]
+                if (w > 0 && elements[w - 1] === element) {
+                    ends[w - 1] = end - removed
+                    if (tags[w - 1] < 0) tags[w - 1] = tags[r]
+                } else {
+                    elements[w] = element
+                    ends[w] = end - removed
+                    tags[w] = tags[r]
+                    w++
+                }
+            }
+            start = end
+        }
+        Arrays.fill(elements, w, runs, null)
+        runs = w
+        lastRun = 0
+    }
+
+    override fun clear() {
+        if (runs > 0) {
+            modCount++
+            Arrays.fill(elements, 0, runs, null)
+            runs = 0
+            lastRun = 0
+        }
+    }
+
+    override fun indexOf(element: E): Int {
+        for (r in 0 until runs)
+            if (elements[r] == element)
+                return startOf(r)
+        return -1
+    }
+
+    override fun lastIndexOf(element: E): Int {
+        for (r in runs - 1 downTo 0)
+            if (elements[r] == element)
+                return ends[r] - 1
+        return -1
+    }
+
+    override fun contains(element: E): Boolean =
+        indexOf(element) >= 0
+
+    /**
+     * Finds the first position of an element equal to [element],
+     * visiting positions [startIndex], `startIndex + step`, `startIndex + 2 * step`, and so on.
+     * Skips whole runs of non-matching elements.
+     * @return found position or `-1`
+     */
+    fun indexOf(element: E, startIndex: Int, step: Int): Int {
+        require(step != 0)
+        if (startIndex !in 0 until size) return -1
+        var r = runAt(startIndex)
+        if (elements[r] == element) return startIndex
+        if (step > 0) {
+            while (++r < runs) if (elements[r] == element) {
+                val p = startIndex + (startOf(r) - startIndex + step - 1) / step * step
+                if (p < ends[r]) return p
+            }
+        } else {
+            while (--r >= 0) if (elements[r] == element) {
+                val p = startIndex - (startIndex - ends[r] + 1 - step - 1) / -step * -step
+                if (p >= startOf(r)) return p
+            }
+        }
+        return -1
+    }
+
+    /**
+     * Replaces each non-negative tag `t` with `mapping[t]` in `O(runs)`.
+     */
+    internal fun mapTags(mapping: IntArray) {
+        for (r in 0 until runs) if (tags[r] >= 0) tags[r] = mapping[tags[r]]
+    }
+
+    /**
+     * Creates an independent copy in `O(runs)`.
+     */
+    internal fun copy(): RunLengthList<E> {
+        val copy = RunLengthList<E>(0)
+        copy.ends = ends.copyOf(runs)
+        copy.elements = elements.copyOf(runs)
+        copy.tags = tags.copyOf(runs)
+        copy.runs = runs
+        return copy
+    }
+
+    // internals
+
+    private fun runAt(index: Int): Int {
+        val cached = lastRun
+        if (cached < runs && index < ends[cached]) {
+            if (index >= startOf(cached)) return cached
+        } else if (cached + 1 < runs && index >= ends[cached] && index < ends[cached + 1]) {
+            return (cached + 1).also { lastRun = it }
+        }
+        var lo = 0
+        var hi = runs - 1
+        while (lo < hi) { // find first run ending after index
+            val mid = (lo + hi) ushr 1
+            if (ends[mid] > index) hi = mid else lo = mid + 1
+        }
+        lastRun = lo
+        return lo
+    }
+
+    private fun startOf(run: Int): Int =
+        if (run == 0) 0 else ends[run - 1]
+
+    private fun shift(fromRun: Int, by: Int) {
+        for (r in fromRun until runs) ends[r] += by
+    }
+
+    private fun extend(run: Int, by: Int, tag: Int) {
+        if (tags[run] < 0) tags[run] = tag
+        shift(run, by)
+    }
+
+    private fun insertRun(at: Int, element: Any?, end: Int, tag: Int) {
+        if (runs == ends.size) {
+            val newCapacity = maxOf(8, runs + (runs shr 1))
+            ends = ends.copyOf(newCapacity)
+            elements = elements.copyOf(newCapacity)
+            tags = tags.copyOf(newCapacity)
+        }
+        System.arraycopy(ends, at, ends, at + 1, runs - at)
+        System.arraycopy(elements, at, elements, at + 1, runs - at)
+        System.arraycopy(tags, at, tags, at + 1, runs - at)
+        ends[at] = end
+        elements[at] = element
+        tags[at] = tag
+        runs++
+        lastRun = at
+    }
+
+    private fun dropRuns(from: Int, to: Int) {
+        if (from == to) return
+        System.arraycopy(ends, to, ends, from, runs - to)
+        System.arraycopy(elements, to, elements, from, runs - to)
+        System.arraycopy(tags, to, tags, from, runs - to)
+        val newRuns = runs - (to - from)
+        Arrays.fill(elements, newRuns, runs, null)
+        runs = newRuns
+        lastRun = 0
+    }
+
+    private fun mergeWithNext(run: Int) {
+        if (run >= 0 && run + 1 < runs && elements[run] === elements[run + 1]) {
+            ends[run] = ends[run + 1]
+            if (tags[run] < 0) tags[run] = tags[run + 1]
+            dropRuns(run + 1, run + 2)
+        }
+    }
+
+    private fun oob(index: Int) = // extracted rare path, don't bother JIT with StringBuilder chain
+        IndexOutOfBoundsException("$index ∉ [0, $size)")
+
+    private fun oob(fromIndex: Int, toIndex: Int) =
+        IndexOutOfBoundsException("[$fromIndex, $toIndex) ⊄ [0, $size)")
+
+}
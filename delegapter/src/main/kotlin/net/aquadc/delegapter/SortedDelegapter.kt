@@ -0,0 +1,110 @@
+package net.aquadc.delegapter
+
+import androidx.recyclerview.widget.DiffUtil
+
+/**
+ * Keeps [data] sorted by [comparator], like [androidx.recyclerview.widget.SortedList].
+ * Insertions find their positions by binary search, thus adding `k` items costs `O(k log n)` comparisons.
+ * An item which compares equal to an existing one of the same delegate,
+ * and is [the same][DiffUtil.ItemCallback.areItemsTheSame] (or equal, for non-[DiffDelegate]s),
+ * replaces it in place, notifying with a change only if contents differ.
+ * Bulk operations are notified as a single [batch][MutableDelegapter.batch].
+ * [data] must not be mutated directly, except for removals.
+ * @author Mike Gorünóv
+ */
+class SortedDelegapter(
+    @JvmField val data: MutableDelegapter,
+    private val comparator: DelegateComparator,
+) {
+
+    fun interface DelegateComparator {
+        fun compare(delegate1: Delegate<*>, item1: Any?, delegate2: Delegate<*>, item2: Any?): Int
+    }
+
+    val size: Int
+        get() = data.size
+
+    /**
+     * Inserts or updates [item].
+     * @return its position
+     */
+    fun <D> add(delegate: Delegate<in D>, item: D): Int {
+        val at = lowerBound(delegate, item)
+        val same = sameAround(at, delegate, item)
+        if (same < 0) {
+            data.add(delegate, item, at)
+            return at
+        }
+        val old = data.itemAt(same)
+        if (delegate is DiffUtil.ItemCallback<*> && old != null && item != null) {
+            @Suppress("UNCHECKED_CAST") val diff = delegate as DiffUtil.ItemCallback<Any>
+            if (!diff.areContentsTheSame(old, item))
+                data.set(delegate, item, same, diff.getChangePayload(old, item))
+        } // otherwise, the same item is an equal one, nothing to update
+        return same
+    }
+
+    /**
+     * Inserts or updates each of [items] within a single batch.
+     */
+    fun <D> addAll(delegate: Delegate<in D>, items: Collection<D>) {
+        data.batch {
+            for (item in items) this@SortedDelegapter.add(delegate, item)
+        }
+    }
+
+    /**
+     * Finds position of [item] by binary search, or returns `-1`.
+     */
+    fun <D> indexOf(delegate: Delegate<in D>, item: D): Int =
+        sameAround(lowerBound(delegate, item), delegate, item)
+
+    fun <D> remove(delegate: Delegate<in D>, item: D): Boolean {
+        val at = indexOf(delegate, item)
+        if (at >= 0) data.removeAt(at)
+        return at >= 0
+    }
+
+    /**
+     * Removes each of [items] within a single batch.
+     */
+    fun <D> removeAll(delegate: Delegate<in D>, items: Collection<D>) {
+        data.batch {
+            for (item in items) this@SortedDelegapter.remove(delegate, item)
+        }
+    }
+
+    // internals
+
+    // first position where an existing item is not less than the given one
+    private fun lowerBound(delegate: Delegate<*>, item: Any?): Int {
+        var lo = 0
+        var hi = data.size
+        while (lo < hi) {
+            val mid = (lo + hi) ushr 1
+            if (comparator.compare(data.delegateAt(mid), data.itemAt(mid), delegate, item) < 0) lo = mid + 1
+            else hi = mid
+        }
+        return lo
+    }
+
+    // looks for the same item among ones which compare equal, starting from lowerBound
+    private fun sameAround(from: Int, delegate: Delegate<*>, item: Any?): Int {
+        var i = from
+        while (i < data.size) {
+            val d = data.delegateAt(i)
+            val it = data.itemAt(i)
+            if (comparator.compare(d, it, delegate, item) != 0) break
+            if (d == delegate && isSame(delegate, it, item)) return i
+            i++
+        }
+        return -1
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    private fun isSame(delegate: Delegate<*>, old: Any?, new: Any?): Boolean =
+        if (delegate is DiffUtil.ItemCallback<*> && old != null && new != null)
+            (delegate as DiffUtil.ItemCallback<Any>).areItemsTheSame(old, new)
+        else old == new
+
+}
@@ -0,0 +1,75 @@
+package net.aquadc.delegapter
+
+import androidx.recyclerview.widget.DiffUtil
+import androidx.recyclerview.widget.ListUpdateCallback
+
+/**
+ * Narrows [full] diff callback to the window between common head and tail of old and new lists,
+ * i.e. items which are the same and have the same contents at both ends are not diffed at all.
+ * Positions reported by the window are relative to [head], see [offset].
+ * @author Mike Gorünóv
+ */
+internal class TrimmedCallback(private val full: DiffUtil.Callback) : DiffUtil.Callback() {
+
+    @JvmField var head = 0
+    private var headDone = false
+    private var tail = 0
+    private var oldCount = 0
+    private var newCount = 0
+
+    fun trim(): TrimmedCallback {
+        trim(Int.MAX_VALUE)
+        return this
+    }
+
+    /**
+     * Compares at most [steps] pairs of items. Call again to resume.
+     * @return whether trimming is complete
+     */
+    fun trim(steps: Int): Boolean {
+        val oldSize = full.oldListSize
+        val newSize = full.newListSize
+        val common = minOf(oldSize, newSize)
+        var left = steps
+        while (!headDone) {
+            if (head < common && unchanged(head, head)) head++ else headDone = true
+            if (--left == 0) return false
+        }
+        while (tail < common - head && unchanged(oldSize - 1 - tail, newSize - 1 - tail)) {
+            tail++
+            if (--left == 0) return false
+        }
+        oldCount = oldSize - head - tail
+        newCount = newSize - head - tail
+        return true
+    }
+
+    private fun unchanged(oldItemPosition: Int, newItemPosition: Int): Boolean =
+        full.areItemsTheSame(oldItemPosition, newItemPosition) && full.areContentsTheSame(oldItemPosition, newItemPosition)
+
+    /**
+     * Wraps [target] to translate window positions to list positions.
+     */
+    fun offset(target: ListUpdateCallback): ListUpdateCallback =
+        if (head == 0) target else OffsetListUpdateCallback(target, head)
+
+    override fun getOldListSize(): Int = oldCount
+    override fun getNewListSize(): Int = newCount
+    override fun areItemsTheSame(oldItemPosition: Int, newItemPosition: Int): Boolean =
+        full.areItemsTheSame(head + oldItemPosition, head + newItemPosition)
+    override fun areContentsTheSame(oldItemPosition: Int, newItemPosition: Int): Boolean =
+        full.areContentsTheSame(head + oldItemPosition, head + newItemPosition)
+    override fun getChangePayload(oldItemPosition: Int, newItemPosition: Int): Any? =
+        full.getChangePayload(head + oldItemPosition, head + newItemPosition)
+
+}
+
+private class OffsetListUpdateCallback(
+    private val target: ListUpdateCallback,
+    private val offset: Int,
+) : ListUpdateCallback {
+    override fun onInserted(position: Int, count: Int): Unit = target.onInserted(offset + position, count)
+    override fun onRemoved(position: Int, count: Int): Unit = target.onRemoved(offset + position, count)
+    override fun onMoved(fromPosition: Int, toPosition: Int): Unit = target.onMoved(offset + fromPosition, offset + toPosition)
+    override fun onChanged(position: Int, count: Int, payload: Any?): Unit = target.onChanged(offset + position, count, payload)
+}
@@ -0,0 +1,109 @@
+package net.aquadc.delegapter
+
+/**
+ * Read-only (delegate, item) pairs backed by a random-access [Source], e.g. a database cursor.
+ * Keeps at most [cacheSize] rows in memory, a row at `position` occupies slot `position % cacheSize`,
+ * thus any window of up to [cacheSize] consecutive rows stays cached while scrolling through it.
+ * Lookups by [decorations][net.aquadc.delegapter.decor.decor] go through the same cache and count into [hitRate].
+ * Main thread only.
+ * @author Mike Gorünóv
+ *
+ * @param registry delegapter to share viewTypes with
+ */
+class VirtualDelegapter<T>(
+    source: Source<T>,
+    private val registry: MutableDelegapter,
+    cacheSize: Int = 64,
+) : DelegatedList {
+
+    interface Source<T> {
+        val size: Int
+        operator fun get(position: Int): T
+        fun delegateFor(position: Int, item: T): Delegate<*>
+    }
+
+    private val positions = IntArray(cacheSize).also { it.fill(-1) }
+    private val items = arrayOfNulls<Any?>(cacheSize)
+    private val delegates = arrayOfNulls<Delegate<*>>(cacheSize)
+    private val viewTypes = IntArray(cacheSize)
+
+    init {
+        require(cacheSize > 0)
+    }
+
+    /**
+     * Data source. Setting a new one drops cached rows, notifying the adapter is up to the caller.
+     */
+    var source: Source<T> = source
+        set(value) {
+            field = value
+            invalidate()
+        }
+
+    var hits: Long = 0L
+        private set
+    var misses: Long = 0L
+        private set
+
+    /**
+     * Share of lookups served from cache, in [0, 1], or `NaN` if nothing was requested yet.
+     */
+    val hitRate: Float
+        get() = (hits.toDouble() / (hits + misses)).toFloat()
+
+    fun resetStats() {
+        hits = 0L
+        misses = 0L
+    }
+
+    override val size: Int
+        get() = source.size
+
+    @Suppress("UNCHECKED_CAST")
+    fun itemAt(position: Int): T =
+        items[slotOf(position)] as T
+
+    override fun delegateAt(position: Int): Delegate<*> =
+        delegates[slotOf(position)]!!
+
+    fun viewTypeAt(position: Int): Int =
+        viewTypes[slotOf(position)]
+
+    /**
+     * Drops cached rows, e.g. when [source] contents have changed.
+     */
+    fun invalidate() {
+        positions.fill(-1)
+        items.fill(null)
+        delegates.fill(null)
+    }
+
+    private fun slotOf(position: Int): Int {
+        if (position !in 0 until source.size) throw oob(position)
+        val slot = position % positions.size
+        if (positions[slot] == position) {
+            hits++
+        } else {
+            misses++
+            load(slot, position)
+        }
+        return slot
+    }
+
+    // extracted rare path
+    private fun load(slot: Int, position: Int) {
+        val item = source[position]
+        val delegate = source.delegateFor(position, item)
+        items[slot] = item
+        delegates[slot] = delegate
+        viewTypes[slot] = registry.forceViewTypeOf(delegate)
+        positions[slot] = position
+    }
+
+    private fun oob(position: Int) = // extracted rare path, don't bother JIT with StringBuilder chain
+        IndexOutOfBoundsException("$position ∉ [0, ${source.size})")
+
+    override fun toString(): String =
+        "VirtualDelegapter(size=$size, hitRate=$hitRate)"
+
+}
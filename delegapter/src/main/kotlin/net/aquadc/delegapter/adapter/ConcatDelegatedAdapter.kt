@@ -0,0 +1,35 @@
+package net.aquadc.delegapter.adapter
+
+import android.view.ViewGroup
+import net.aquadc.delegapter.ConcatDelegapter
+import net.aquadc.delegapter.LongVH
+import net.aquadc.delegapter.MutableDelegapter
+import net.aquadc.delegapter.VH
+
+/**
+ * An adapter implementation with [ConcatDelegapter] inside.
+ * Unlike [androidx.recyclerview.widget.ConcatAdapter], finds a section in `O(log sections)`
+ * and lets a single [net.aquadc.delegapter.decor.Decor] see delegates across section boundaries.
+ * @author Mike Gorünóv
+ */
+open class ConcatDelegatedAdapter @JvmOverloads constructor(
+    parent: MutableDelegapter? = null,
+) : VHAdapter<VH<*, *, *>>() {
+
+    @JvmField val data = ConcatDelegapter(this, parent)
+
+    override fun getItemCount(): Int =
+        data.size
+
+    override fun getItemViewType(position: Int): Int =
+        data.viewTypeAt(position)
+
+    override fun onCreateViewHolder(parent: ViewGroup, viewType: Int): VH<*, *, *> =
+        data.forViewType(viewType)(parent)
+
+    @Suppress("UNCHECKED_CAST")
+    override fun onBindViewHolder(holder: VH<*, *, *>, position: Int, payloads: List<Any>): Unit =
+        if (holder is LongVH<*, *>) holder.bind(data.longAt(position), position, payloads)
+        else (holder as VH<*, *, Any?>).bind(data.itemAt(position), position, payloads)
+
+}
@@ -2,30 +2,43 @@ package net.aquadc.delegapter.adapter
 
 import android.view.ViewGroup
 import net.aquadc.delegapter.Delegapter
+import net.aquadc.delegapter.LongVH
 import net.aquadc.delegapter.MutableDelegapter
 import net.aquadc.delegapter.VH
 
 /**
  * An adapter implementation with [Delegapter] inside.
  * @author Mike Gorünóv
+ *
+ * @param stableIds whether to [have stable ids][setHasStableIds] given by [MutableDelegapter.itemIdAt],
+ *   all items must have [ids][net.aquadc.delegapter.DiffDelegate.itemIdOf] then
  */
 open class DelegatedAdapter @JvmOverloads constructor(
     parent: MutableDelegapter? = null,
     initialCapacity: Int = -1,
+    stableIds: Boolean = false,
 ) : VHAdapter<VH<*, *, *>>() {
 
     @JvmField val data = Delegapter(this, parent, initialCapacity)
 
+    init {
+        if (stableIds) setHasStableIds(true)
+    }
+
     override fun getItemCount(): Int =
         data.size
 
     override fun getItemViewType(position: Int): Int =
         data.viewTypeAt(position)
 
+    override fun getItemId(position: Int): Long =
+        data.itemIdAt(position)
+
     override fun onCreateViewHolder(parent: ViewGroup, viewType: Int): VH<*, *, *> =
         data.forViewType(viewType)(parent)
 
     override fun onBindViewHolder(holder: VH<*, *, *>, position: Int, payloads: List<Any>): Unit =
-        (holder as VH<*, *, Any?>).bind(data.itemAt(position), position, payloads)
+        if (holder is LongVH<*, *>) holder.bind(data.longAt(position), position, payloads)
+        else (holder as VH<*, *, Any?>).bind(data.itemAt(position), position, payloads)
 
 }
\ No newline at end of file
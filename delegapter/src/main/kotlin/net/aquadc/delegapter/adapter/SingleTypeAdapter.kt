@@ -2,16 +2,22 @@ package net.aquadc.delegapter.adapter
 
 import android.view.ViewGroup
 import androidx.annotation.RequiresApi
+import androidx.recyclerview.widget.AdapterListUpdateCallback
 import androidx.recyclerview.widget.DiffUtil
 import androidx.recyclerview.widget.RecyclerView.Adapter
+import net.aquadc.delegapter.CountingCallback
 import net.aquadc.delegapter.Delegate
 import net.aquadc.delegapter.DiffDelegate
+import net.aquadc.delegapter.DiffListener
+import net.aquadc.delegapter.DiffPath
+import net.aquadc.delegapter.DiffStats
 import net.aquadc.delegapter.MutableDelegapter
 import net.aquadc.delegapter.RemoveRangeArrayList
 import net.aquadc.delegapter.RemoveRangeMutableList
+import net.aquadc.delegapter.RemovedRanges
+import net.aquadc.delegapter.TrimmedCallback
 import net.aquadc.delegapter.VH
-import net.aquadc.delegapter.commitRemovals
-import net.aquadc.delegapter.markForRemoval
+import net.aquadc.delegapter.dispatchCounting
 import java.util.function.Predicate
 
 /**
@@ -54,6 +60,18 @@ open class SingleTypeDiffAdapter<D>(
 
     private var differ: Differ<D>? = null
 
+    /**
+     * Receives [DiffStats] of each [replace] call which compares items.
+     * Counting is enabled only while a listener is set.
+     */
+    var diffListener: DiffListener? = null
+
+    /**
+     * How the latest [replace] which compared items computed the diff, recorded with or without [diffListener].
+     */
+    var lastDiffPath: DiffPath? = null
+        private set
+
     override var items: RemoveRangeMutableList<D>
         get() = super.items
         set(value/*: wannabe List<D>*/) { replace(value) }
@@ -71,10 +89,24 @@ open class SingleTypeDiffAdapter<D>(
                 val differ = differ ?: Differ(delegate as DiffUtil.ItemCallback<D>).also { differ = it }
                 differ.old = (super.items as ObservableList).list
                 differ.new = items
-                DiffUtil.calculateDiff(differ, detectMoves).dispatchUpdatesTo(this)
+                val listener = diffListener
+                val stats = if (listener == null) null else DiffStats(super.items.size, items.size)
+                val start = if (stats == null) 0L else System.nanoTime()
+                val window = TrimmedCallback(if (stats == null) differ else CountingCallback(differ, stats)).trim()
+                val path = when {
+                    window.oldListSize == 0 || window.newListSize == 0 -> DiffPath.Trimmed
+                    detectMoves -> DiffPath.Myers
+                    else -> DiffPath.MyersWithoutMoves
+                }
+                lastDiffPath = path
+                stats?.path = path
+                val result = DiffUtil.calculateDiff(window, detectMoves)
+                if (stats != null) stats.diffNanos = System.nanoTime() - start
+                AdapterListUpdateCallback(this).dispatchCounting(stats) { result.dispatchUpdatesTo(window.offset(it)) }
                 differ.old = null
                 differ.new = null
                 (super.items as ObservableList).list = items
+                listener?.onDiff(stats!!)
             }
         }
     }
@@ -156,13 +188,24 @@ private class ObservableList<D>(
         batchRemoveIf { elements.contains(list[it]) != complement }
 
     private inline fun batchRemoveIf(predicate: (Int) -> Boolean): Boolean {
-        var removed = 0
-        for (i in list.indices) if (predicate(i)) {
-            mutableList.markForRemoval(i)
-            callback.notifyItemRemoved(i - removed++)
+        // compact in place, predicate may look at list[i] which is not overwritten yet
+        val ranges = RemovedRanges()
+        var list = list
+        val size = list.size
+        var kept = 0
+        for (i in 0 until size) {
+            val item = list[i]
+            if (predicate(i)) {
+                if (ranges.count == 0) list = mutableList
+                ranges.add(i)
+            } else {
+                if (kept != i) (list as MutableList<D>)[kept] = item
+                kept++
+            }
         }
-        return if (removed > 0) {
-            mutableList.commitRemovals()
+        return if (kept < size) {
+            (list as RemoveRangeArrayList).removeRange(kept, size)
+            ranges.forEachRemoval(callback::notifyItemRangeRemoved)
             true
         } else false
     }
@@ -0,0 +1,48 @@
+package net.aquadc.delegapter.adapter
+
+import android.view.ViewGroup
+import net.aquadc.delegapter.MutableDelegapter
+import net.aquadc.delegapter.NullListUpdateCallback
+import net.aquadc.delegapter.VH
+import net.aquadc.delegapter.VirtualDelegapter
+
+/**
+ * An adapter implementation with [VirtualDelegapter] inside.
+ * Shows huge datasets holding only a bounded number of rows in memory.
+ * Decorate it with `data.decor(orientation, this) { … }`, see [net.aquadc.delegapter.decor.decor].
+ * @author Mike Gorünóv
+ */
+open class VirtualAdapter<T> @JvmOverloads constructor(
+    source: VirtualDelegapter.Source<T>,
+    parent: MutableDelegapter? = null,
+    cacheSize: Int = 64,
+) : VHAdapter<VH<*, *, *>>() {
+
+    private val registry = parent ?: MutableDelegapter(NullListUpdateCallback)
+
+    @JvmField val data = VirtualDelegapter(source, registry, cacheSize)
+
+    /**
+     * Replaces data source, e.g. with a re-queried cursor, and notifies about the whole data set change.
+     */
+    var source: VirtualDelegapter.Source<T>
+        get() = data.source
+        set(value) {
+            data.source = value
+            notifyDataSetChanged()
+        }
+
+    override fun getItemCount(): Int =
+        data.size
+
+    override fun getItemViewType(position: Int): Int =
+        data.viewTypeAt(position)
+
+    override fun onCreateViewHolder(parent: ViewGroup, viewType: Int): VH<*, *, *> =
+        registry.forViewType(viewType)(parent)
+
+    @Suppress("UNCHECKED_CAST")
+    override fun onBindViewHolder(holder: VH<*, *, *>, position: Int, payloads: List<Any>): Unit =
+        (holder as VH<*, *, Any?>).bind(data.itemAt(position), position, payloads)
+
+}
@@ -1,43 +1,388 @@
 package net.aquadc.delegapter
 
 import java.util.Arrays
+import java.util.Collections
+import java.util.IdentityHashMap
 
+/**
+ * Sorted disjoint (start, endExclusive) index ranges collected in ascending order.
+ */
+internal class RemovedRanges {
+    @JvmField var ranges: IntArray = EMPTY_INTS
+    @JvmField var count = 0
 
-@Suppress("UNCHECKED_CAST")
-internal class RepeatList<T> : AbstractList<T>() {
-    private var _size = 0 // getterless access
-    private var element: T? = null
+    fun add(index: Int) {
+        if (count > 0 && ranges[2 * count - 1] == index) {
+            ranges[2 * count - 1]++
+        } else {
+            if (2 * count == ranges.size) ranges = ranges.copyOf(maxOf(8, 2 * ranges.size))
+            ranges[2 * count] = index
+            ranges[2 * count + 1] = index + 1
+            count++
+        }
+    }
+
+    /**
+     * Visits ranges as they should be reported to a ListUpdateCallback one by one:
+     * each position accounts for the ranges removed before it.
+     */
+    inline fun forEachRemoval(block: (position: Int, count: Int) -> Unit) {
+        var removed = 0
+        for (q in 0 until count) {
+            val start = ranges[2 * q]
+            val n = ranges[2 * q + 1] - start
+            block(start - removed, n)
+            removed += n
+        }
+    }
+}
+private val EMPTY_INTS = IntArray(0)
 
-    override val size: Int = _size
 
-    override fun get(index: Int): T =
-        if (index in 0 until _size) element as T else throw oob(index)
+/**
+ * Multiset of items answering whether an item is present without scanning.
+ * Items of [LongDelegate]s are counted by value regardless of [byIdentity].
+ */
+internal class ItemIndex(@JvmField val byIdentity: Boolean) {
+    private val counts: MutableMap<Any?, IntArray> = if (byIdentity) IdentityHashMap() else HashMap()
+    private val longCounts = HashMap<Long, IntArray>()
 
-    private fun oob(index: Int) = // extracted rare/unreachable path, don't bother JIT with StringBuilder chain
-        IndexOutOfBoundsException("$index ∉ [0, $_size)")
+    operator fun contains(item: Any?): Boolean =
+        counts.containsKey(item) || (item is Long && longCounts.containsKey(item))
 
-    override fun toArray(): Array<Any?> = // ArrayList#addAll uses .toArray()
-        arrayOfNulls<Any>(_size).also { Arrays.fill(it, element) }
+    fun same(a: Any?, b: Any?): Boolean =
+        if (byIdentity) a === b else a == b
 
-    internal fun of(times: Int, what: T) { // outlined to avoid two synthetic accessors for private fields
-        _size = times
-        element = what
+    fun add(item: Any?) {
+        val count = counts[item]
+        if (count == null) counts[item] = intArrayOf(1) else count[0]++
     }
 
-    internal inline fun <R> of(what: T, times: Int, block: (List<T>) -> R): R {
-        of(times, what)
-        val r = block(this)
-        of(0, null as T) // unleak
-        return r
+    fun addLong(item: Long) {
+        val count = longCounts[item]
+        if (count == null) longCounts[item] = intArrayOf(1) else count[0]++
+    }
+
+    /**
+     * Adds items at positions [[fromIndex], [toIndex]), resolving [LongSlot]s through [longs].
+     */
+    fun addAll(items: List<Any?>, longs: LongList?, fromIndex: Int = 0, toIndex: Int = items.size) {
+        for (i in fromIndex until toIndex) items[i].let { if (it === LongSlot) addLong(longs!![i]) else add(it) }
+    }
+
+    fun remove(item: Any?) {
+        val count = counts[item]!!
+        if (--count[0] == 0) counts.remove(item)
+    }
+
+    fun removeLong(item: Long) {
+        val count = longCounts[item]!!
+        if (--count[0] == 0) longCounts.remove(item)
+    }
+
+    /**
+     * Removes items at positions [[fromIndex], [toIndex]), resolving [LongSlot]s through [longs].
+     */
+    fun removeAll(items: List<Any?>, longs: LongList?, fromIndex: Int = 0, toIndex: Int = items.size) {
+        for (i in fromIndex until toIndex) items[i].let { if (it === LongSlot) removeLong(longs!![i]) else remove(it) }
+    }
+
+    fun clear() {
+        counts.clear()
+        longCounts.clear()
     }
-}
 
-private val REMOVED = Any()
-private val REMOVED_LIST = setOf(REMOVED)
-@Suppress("UNCHECKED_CAST")
-internal fun MutableList<*>.markForRemoval(at: Int) {
-    (this as MutableList<Any>)[at] = REMOVED
+    /**
+     * Returns [elements] as a collection with O(1) lookup which agrees with this index on item sameness.
+     */
+    fun lookupOf(elements: Collection<Any?>): Collection<Any?> = when {
+        byIdentity -> Collections.newSetFromMap<Any?>(IdentityHashMap(elements.size)).also { it.addAll(elements) }
+        else -> hashLookupOf(elements)
+    }
 }
-internal fun MutableList<*>.commitRemovals() {
-    removeAll(REMOVED_LIST)
+
+internal fun hashLookupOf(elements: Collection<Any?>): Collection<Any?> =
+    if (elements is Set<*> || elements.size < 8) elements else HashSet(elements)
+
+/**
+ * `long[]` mirroring positions of the item column, made of fixed-capacity blocks like [ChunkedList],
+ * thus inserting near the beginning of a long list shifts at most one block and the block table.
+ * Blocks are shared with a [copy] and get cloned on first write.
+ * Values at positions not holding [LongSlot] are garbage.
+ */
+internal class LongList(initialCapacity: Int) {
+    private var blocks: Array<LongArray?> = arrayOfNulls(maxOf(4, initialCapacity / BLOCK + 1))
+    private var sizes: IntArray = IntArray(blocks.size)
+    private var starts: IntArray = IntArray(blocks.size)
+    private var owned: BooleanArray = BooleanArray(blocks.size) // false if a block is shared with a copy
+    private var blockCount = 0
+    private var validStarts = 0 // starts[0 until validStarts] are up to date
+    private var lastBlock = 0 // sequential access cache
+    var size = 0
+        private set
+
+    operator fun get(index: Int): Long {
+        val b = blockAt(index)
+        return blocks[b]!![index - starts[b]]
+    }
+
+    operator fun set(index: Int, value: Long) {
+        val b = blockAt(index)
+        writable(b)[index - starts[b]] = value
+    }
+
+    /**
+     * Opens [count] garbage positions at [index].
+     */
+    fun insert(index: Int, count: Int) {
+        if (count == 0) return
+        var at = if (index == size) blockCount else {
+            val b = blockAt(index)
+            val offset = index - starts[b]
+            if (sizes[b] + count <= BLOCK) {
+                val block = writable(b)
+                System.arraycopy(block, offset, block, offset + count, sizes[b] - offset)
+                sizes[b] += count
+                size += count
+                invalidateAfter(b)
+                return
+            }
+            if (offset == 0) b else { splitAt(b, offset); b + 1 }
+        }
+        var left = count
+        if (at > 0) { // top up the previous block to avoid leaving small ones around
+            val prev = at - 1
+            val n = minOf(BLOCK - sizes[prev], left)
+            sizes[prev] += n
+            left -= n
+            invalidateAfter(prev)
+        }
+        if (left > 0) {
+            at = openBlocks(at, (left + BLOCK - 1) / BLOCK)
+            while (left > 0) {
+                val n = minOf(BLOCK, left)
+                blocks[at] = LongArray(BLOCK)
+                sizes[at] = n
+                owned[at] = true
+                at++
+                left -= n
+            }
+        }
+        size += count
+    }
+
+    fun removeRange(fromIndex: Int, toIndex: Int) {
+        if (fromIndex == toIndex) return
+        val first = blockAt(fromIndex)
+        var b = first
+        var offset = fromIndex - starts[b]
+        var remaining = toIndex - fromIndex
+        while (remaining > 0) {
+            val size = sizes[b]
+            val n = minOf(size - offset, remaining)
+            if (n < size) { // whole blocks will be dropped without copying
+                val block = writable(b)
+                System.arraycopy(block, offset + n, block, offset, size - offset - n)
+            }
+            sizes[b] = size - n
+            remaining -= n
+            offset = 0
+            b++
+        }
+        size -= toIndex - fromIndex
+        invalidateAfter(first)
+        dropEmpty(first, b)
+    }
+
+    fun removeRanges(ranges: RemovedRanges) {
+        var w = ranges.ranges[0]
+        for (q in 0 until ranges.count) {
+            val keptFrom = ranges.ranges[2 * q + 1]
+            val keptTo = if (q + 1 < ranges.count) ranges.ranges[2 * q + 2] else size
+            copyFrom(this, keptFrom, keptTo, w) // towards the beginning, never overwrites what's not read yet
+            w += keptTo - keptFrom
+        }
+        removeRange(w, size)
+    }
+
+    fun move(fromIndex: Int, count: Int, toIndex: Int) {
+        val moving = LongArray(count)
+        var i = 0
+        while (i < count) {
+            val b = blockAt(fromIndex + i)
+            val offset = fromIndex + i - starts[b]
+            val n = minOf(count - i, sizes[b] - offset)
+            System.arraycopy(blocks[b]!!, offset, moving, i, n)
+            i += n
+        }
+        removeRange(fromIndex, fromIndex + count)
+        insert(toIndex, count)
+        setAll(toIndex, moving)
+    }
+
+    fun setAll(index: Int, values: LongArray) {
+        write(index, values, 0, values.size)
+    }
+
+    fun copyFrom(from: LongList, fromIndex: Int, toIndex: Int, atIndex: Int) {
+        var s = fromIndex
+        var d = atIndex
+        while (s < toIndex) {
+            val b = from.blockAt(s)
+            val offset = s - from.starts[b]
+            val n = minOf(toIndex - s, from.sizes[b] - offset)
+            write(d, from.blocks[b]!!, offset, n)
+            s += n
+            d += n
+        }
+    }
+
+    fun clear() {
+        Arrays.fill(blocks, 0, blockCount, null)
+        blockCount = 0
+        validStarts = 0
+        lastBlock = 0
+        size = 0
+    }
+
+    /**
+     * Creates a copy sharing blocks with this list in `O(blocks)`, see [ChunkedList.cowCopy].
+     */
+    fun copy(): LongList {
+        if (blockCount > 0) blockAt(size - 1) // validate all starts
+        val copy = LongList(-1)
+        copy.blocks = blocks.copyOf()
+        copy.sizes = sizes.copyOf()
+        copy.starts = starts.copyOf()
+        copy.owned = BooleanArray(blocks.size)
+        copy.blockCount = blockCount
+        copy.validStarts = validStarts
+        copy.size = size
+        Arrays.fill(owned, 0, blockCount, false)
+        return copy
+    }
+
+    // internals, see ChunkedList
+
+    private fun write(index: Int, src: LongArray, srcOffset: Int, count: Int) {
+        var i = 0
+        while (i < count) {
+            val b = blockAt(index + i)
+            val offset = index + i - starts[b]
+            val n = minOf(count - i, sizes[b] - offset)
+            System.arraycopy(src, srcOffset + i, writable(b), offset, n)
+            i += n
+        }
+    }
+
+    private fun writable(block: Int): LongArray {
+        val array = blocks[block]!!
+        return if (owned[block]) array else array.copyOf().also {
+            blocks[block] = it
+            owned[block] = true
+        }
+    }
+
+    private fun blockAt(index: Int): Int {
+        val cached = lastBlock
+        if (cached < validStarts && index >= starts[cached] && index - starts[cached] < sizes[cached])
+            return cached
+
+        var b: Int
+        val lastValid = validStarts - 1
+        if (lastValid >= 0 && index < starts[lastValid] + sizes[lastValid]) {
+            var lo = 0
+            var hi = lastValid
+            while (lo < hi) {
+                val mid = (lo + hi + 1) ushr 1
+                if (starts[mid] <= index) lo = mid else hi = mid - 1
+            }
+            b = lo
+        } else {
+            if (lastValid < 0) {
+                starts[0] = 0
+                b = 0
+            } else {
+                b = lastValid
+            }
+            while (index >= starts[b] + sizes[b]) {
+                starts[b + 1] = starts[b] + sizes[b]
+                b++
+            }
+            validStarts = b + 1
+        }
+        lastBlock = b
+        return b
+    }
+
+    private fun invalidateAfter(block: Int) {
+        if (validStarts > block + 1) validStarts = block + 1
+    }
+
+    private fun splitAt(block: Int, offset: Int) {
+        val src = blocks[block]!!
+        val size = sizes[block]
+        val at = openBlocks(block + 1, 1)
+        val dst = LongArray(BLOCK)
+        System.arraycopy(src, offset, dst, 0, size - offset)
+        blocks[at] = dst
+        owned[at] = true
+        sizes[at] = size - offset
+        sizes[block] = offset
+    }
+
+    private fun openBlocks(at: Int, count: Int): Int {
+        val needed = blockCount + count
+        if (needed > blocks.size) {
+            val newCapacity = maxOf(needed, blocks.size + (blocks.size shr 1))
+            blocks = blocks.copyOf(newCapacity)
+            sizes = sizes.copyOf(newCapacity)
+            starts = starts.copyOf(newCapacity)
+            owned = owned.copyOf(newCapacity)
+        }
+        System.arraycopy(blocks, at, blocks, at + count, blockCount - at)
+        System.arraycopy(sizes, at, sizes, at + count, blockCount - at)
+        System.arraycopy(owned, at, owned, at + count, blockCount - at)
+        blockCount = needed
+        if (validStarts > at) validStarts = at
+        lastBlock = 0
+        return at
+    }
+
+    private fun dropEmpty(from: Int, to: Int) {
+        var w = from
+        for (b in from until to) if (sizes[b] > 0) {
+            blocks[w] = blocks[b]
+            sizes[w] = sizes[b]
+            owned[w] = owned[b]
+            w++
+        }
+        if (w < to) {
+            System.arraycopy(blocks, to, blocks, w, blockCount - to)
+            System.arraycopy(sizes, to, sizes, w, blockCount - to)
+            System.arraycopy(owned, to, owned, w, blockCount - to)
+            val newCount = blockCount - (to - w)
+            Arrays.fill(blocks, newCount, blockCount, null)
+            blockCount = newCount
+            if (validStarts > newCount) validStarts = newCount
+        }
+        lastBlock = 0
+        if (!mergeWithNext(from)) mergeWithNext(from - 1)
+    }
+
+    private fun mergeWithNext(block: Int): Boolean {
+        if (block < 0 || block + 1 >= blockCount || sizes[block] + sizes[block + 1] > BLOCK) return false
+        System.arraycopy(blocks[block + 1]!!, 0, writable(block), sizes[block], sizes[block + 1])
+        sizes[block] += sizes[block + 1]
+        System.arraycopy(blocks, block + 2, blocks, block + 1, blockCount - block - 2)
+        System.arraycopy(sizes, block + 2, sizes, block + 1, blockCount - block - 2)
+        System.arraycopy(owned, block + 2, owned, block + 1, blockCount - block - 2)
+        blocks[--blockCount] = null
+        invalidateAfter(block)
+        return true
+    }
+
+    private companion object {
+        private const val BLOCK = 256
+    }
 }
@@ -20,7 +20,7 @@ import androidx.recyclerview.widget.RecyclerView.HORIZONTAL
 import androidx.recyclerview.widget.RecyclerView.LAYOUT_DIRECTION_RTL
 import androidx.recyclerview.widget.RecyclerView.VERTICAL
 import net.aquadc.delegapter.Delegate
-import net.aquadc.delegapter.MutableDelegapter
+import net.aquadc.delegapter.DelegatedList
 import net.aquadc.delegapter.adapter.DelegatedAdapter
 import net.aquadc.delegapter.decor.ComplexDimension.ComplexDimensionUnit
 import net.aquadc.delegapter.drawFun
@@ -36,7 +36,7 @@ import kotlin.math.min
  * @param debugSpaces draw space sizes (debug feature)
  * @author Mike Gorünóv
  */
-@RequiresApi(18) inline fun MutableDelegapter.decor(
+@RequiresApi(18) inline fun DelegatedList.decor(
     @RecyclerView.Orientation orientation: Int,
     forAdapter: RecyclerView.Adapter<*>? = null,
     debugDelegates: Boolean = false,
@@ -65,7 +65,7 @@ typealias DelegatePredicate = (Delegate<*>) -> Boolean
 
 @RequiresApi(18) // 18+ SparseLongArray and 17+ Gravity.apply(..., direction)
 open class Decor @PublishedApi internal constructor(
-    @JvmField protected val delegapter: MutableDelegapter,
+    @JvmField protected val delegapter: DelegatedList,
     @JvmField protected val orientation: Int,
     @JvmField protected val forAdapter: RecyclerView.Adapter<*>?,
 ) : RecyclerView.ItemDecoration() {
@@ -478,7 +478,7 @@ private val VIEW_BOUNDS_VALUES = ViewBounds.values()
 private val BOUNDS_NEGOTIATION_VALUES = BoundsNegotiation.values()
 
 @PublishedApi @RequiresApi(18) internal class DebugDecor(
-    delegapter: MutableDelegapter,
+    delegapter: DelegatedList,
     orientation: Int,
     forAdapter: RecyclerView.Adapter<*>?,
     private val delegates: Boolean,
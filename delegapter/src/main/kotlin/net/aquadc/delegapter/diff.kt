@@ -3,19 +3,48 @@ package net.aquadc.delegapter
 import android.annotation.SuppressLint
 import android.view.ViewGroup
 import androidx.recyclerview.widget.DiffUtil
+import androidx.recyclerview.widget.RecyclerView
 
 /**
  * A delegate which supports diffing.
  */
-abstract class DiffDelegate<D> : DiffUtil.ItemCallback<D>(), (ViewGroup) -> VH<*, *, D> // Delegate<D>
+abstract class DiffDelegate<D> : DiffUtil.ItemCallback<D>(), (ViewGroup) -> VH<*, *, D> { // Delegate<D>
+    /**
+     * Returns a key identifying [item] among items of this delegate, or `null`.
+     * Items with equal keys must be [the same][areItemsTheSame].
+     * When all items of both old and new lists have keys,
+     * [MutableDelegapter.replace] matches them by keys instead of running [DiffUtil].
+     */
+    open fun keyOf(item: D): Any? = null
+
+    /**
+     * Returns a stable id of [item] among items of this delegate, or [RecyclerView.NO_ID].
+     * Ids must be unique and fit 48 bits, i.e. be in `[-2⁴⁷, 2⁴⁷)`, see [MutableDelegapter.itemIdAt].
+     * Defaults to [keyOf] if it is an `Int` or a `Long`, override for other keys.
+     */
+    open fun itemIdOf(item: D): Long = when (val key = keyOf(item)) {
+        is Long -> key
+        is Int -> key.toLong()
+        else -> RecyclerView.NO_ID // hash codes of other keys may collide
+    }
+}
 
 /**
  * Creates a [DiffDelegate] from [this] one using [itemDiffer].
  */
 operator fun <D> ((ViewGroup) -> VH<*, *, D>).plus(itemDiffer: DiffUtil.ItemCallback<in D>): DiffDelegate<D> =
-    object : DelegatedDiffDelegate<D>(this) {
+    diff(itemDiffer, null)
+
+/**
+ * Creates a [DiffDelegate] from [this] one using [itemDiffer] and [keyOf], see [DiffDelegate.keyOf].
+ * Items are the same only if their keys are equal and [itemDiffer] agrees.
+ */
+fun <D> ((ViewGroup) -> VH<*, *, D>).diff(
+    itemDiffer: DiffUtil.ItemCallback<in D>, keyOf: ((D) -> Any?)?,
+): DiffDelegate<D> =
+    object : DelegatedDiffDelegate<D>(this, keyOf) {
         override fun areItemsTheSame(oldItem: D & Any, newItem: D & Any): Boolean =
-            itemDiffer.areItemsTheSame(oldItem, newItem)
+            sameKeys(oldItem, newItem) && itemDiffer.areItemsTheSame(oldItem, newItem)
         override fun areContentsTheSame(oldItem: D & Any, newItem: D & Any): Boolean =
             itemDiffer.areContentsTheSame(oldItem, newItem)
         override fun getChangePayload(oldItem: D & Any, newItem: D & Any): Any? =
@@ -24,21 +53,31 @@ operator fun <D> ((ViewGroup) -> VH<*, *, D>).plus(itemDiffer: DiffUtil.ItemCall
 
 /**
  * Creates a [DiffDelegate] from [this] one
- * accepting separate [areItemsTheSame], [areContentsTheSame], and [getChangePayload] functions.
+ * accepting separate [areItemsTheSame], [areContentsTheSame], [getChangePayload], and [keyOf] functions.
+ * Items are the same only if their keys, if any, are equal and [areItemsTheSame] agrees.
  */
 inline fun <D> ((ViewGroup) -> VH<*, *, D>).diff(
     crossinline areItemsTheSame: (oldItem: D & Any, newItem: D & Any) -> Boolean = { _, _ -> true },
     crossinline areContentsTheSame: (oldItem: D & Any, newItem: D & Any) -> Boolean = Any::equals,
-    crossinline getChangePayload: (oldItem: D & Any, newItem: D & Any) -> Any? = { _, _ -> null }
-): DiffDelegate<D> = object : DelegatedDiffDelegate<D>(this) {
+    crossinline getChangePayload: (oldItem: D & Any, newItem: D & Any) -> Any? = { _, _ -> null },
+    noinline keyOf: ((D) -> Any?)? = null,
+): DiffDelegate<D> = object : DelegatedDiffDelegate<D>(this, keyOf) {
     override fun areItemsTheSame(oldItem: D & Any, newItem: D & Any): Boolean =
-        areItemsTheSame.invoke(oldItem, newItem)
+        sameKeys(oldItem, newItem) && areItemsTheSame.invoke(oldItem, newItem)
     override fun areContentsTheSame(oldItem: D & Any, newItem: D & Any): Boolean =
         areContentsTheSame.invoke(oldItem, newItem)
     override fun getChangePayload(oldItem: D & Any, newItem: D & Any): Any? =
         getChangePayload.invoke(oldItem, newItem)
 }
 
+// binary compatibility with callers which inlined the overload above before keyOf was added
+@Deprecated("Binary compatibility", level = DeprecationLevel.HIDDEN)
+inline fun <D> ((ViewGroup) -> VH<*, *, D>).diff(
+    crossinline areItemsTheSame: (oldItem: D & Any, newItem: D & Any) -> Boolean = { _, _ -> true },
+    crossinline areContentsTheSame: (oldItem: D & Any, newItem: D & Any) -> Boolean = Any::equals,
+    crossinline getChangePayload: (oldItem: D & Any, newItem: D & Any) -> Any? = { _, _ -> null }
+): DiffDelegate<D> = diff(areItemsTheSame, areContentsTheSame, getChangePayload, null)
+
 /**
  * Creates a [DiffDelegate] from [this] one using equality check.
  * Short-circuit overload avoiding extra class.
@@ -93,9 +132,16 @@ inline fun <D> equateBy(crossinline selector: (D) -> Any?): (D, D) -> Boolean =
 
 
 @PublishedApi internal abstract class DelegatedDiffDelegate<D>(
-    private val d: (parent: ViewGroup) -> VH<*, *, D> // Delegate<D>
+    private val d: (parent: ViewGroup) -> VH<*, *, D>, // Delegate<D>
+    private val key: ((D) -> Any?)?,
 ) : DiffDelegate<D>() {
+    // binary compatibility with subclasses inlined before keyOf was added
+    @PublishedApi internal constructor(d: (parent: ViewGroup) -> VH<*, *, D>) : this(d, null)
+
     final override fun invoke(p1: ViewGroup): VH<*, *, D> = d.invoke(p1)
+    final override fun keyOf(item: D): Any? = key?.invoke(item)
+    @PublishedApi internal fun sameKeys(oldItem: D, newItem: D): Boolean =
+        key == null || key.invoke(oldItem) == key.invoke(newItem)
     final override fun hashCode(): Int = d.hashCode()
     final override fun equals(other: Any?): Boolean = other is DelegatedDiffDelegate<*> && d == other.d
     final override fun toString(): String = d.toString()
@@ -0,0 +1,83 @@
+package net.aquadc.delegapter
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.util.concurrent.Executor
+
+class AsyncDiffTest {
+
+    private val keyed = strings.diff(keyOf = { it })
+    private val initial = List(100) { it.toString() }
+
+    private val background = ManualExecutor()
+    private val main = ManualExecutor()
+    private val events = RecordingCallback()
+    private val d = MutableDelegapter(events).apply { addAll(keyed, initial); events.events.clear() }
+
+    @Test fun resultIsApplied() {
+        d.replaceAsync(background, mainThread = main) { addAll(keyed, initial.drop(1) + "x") }
+        assertEquals(1, background.run())
+        assertEquals("0", d.itemAt(0)) // not yet
+        assertEquals(1, main.run())
+        assertEquals(initial.drop(1) + "x", data())
+        assertEquals(listOf("-0,1", "+99,1"), events.events)
+    }
+
+    @Test fun supersededResultIsDropped() {
+        d.replaceAsync(background, mainThread = main) { add(keyed, "x") }
+        d.replace { addAll(keyed, initial); add(keyed, "y") }
+        background.run()
+        main.run()
+        assertEquals(0, background.pending)
+        assertEquals(initial + "y", data())
+
+        d.replaceAsync(background, mainThread = main) { add(keyed, "x") }
+        d.replaceAsync(background, mainThread = main) { add(keyed, "z") }
+        background.run()
+        main.run()
+        assertEquals(listOf("z"), data())
+    }
+
+    @Test fun mutationCausesRediff() {
+        d.replaceAsync(background, mainThread = main) { addAll(keyed, initial); add(keyed, "x") }
+        background.run()
+        d.removeAt(0)
+        val model = ArrayList(data())
+        events.events.clear()
+        main.run()
+        assertEquals(1, background.pending) // diffing again against the mutated state
+        assertEquals(model, data())
+
+        background.run()
+        main.run()
+        assertEquals(initial + "x", data())
+        assertEquals(listOf("+0,1", "+100,1"), events.events)
+    }
+
+    @Test fun endlessMutationsEndUpDiffingOnMainThread() {
+        d.replaceAsync(background, mainThread = main) { addAll(keyed, initial.reversed()) }
+        var diffs = 0
+        while (background.pending > 0) {
+            diffs += background.run()
+            d.add(keyed, "m$diffs")
+            main.run()
+        }
+        assertEquals(3, diffs)
+        assertEquals(initial.reversed(), data())
+    }
+
+    private fun data(): List<Any?> = List(d.size, d::itemAt)
+
+    private class ManualExecutor : Executor {
+        private val queue = ArrayList<Runnable>()
+        val pending get() = queue.size
+        override fun execute(command: Runnable) { queue += command }
+        fun run(): Int {
+            val tasks = ArrayList(queue)
+            queue.clear()
+            tasks.forEach(Runnable::run)
+            return tasks.size
+        }
+    }
+
+}
@@ -0,0 +1,34 @@
+package net.aquadc.delegapter
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class BatchRemovalTest {
+
+    @Test fun contiguousRemovalsAreCoalesced() {
+        val events = RecordingCallback()
+        val d = MutableDelegapter(events)
+        d.addAll(strings, List(10) { it.toString() })
+        events.events.clear()
+
+        assertTrue(d.removeAll(listOf("1", "2", "3", "6", "7", "9")))
+        assertEquals(listOf("-1,3", "-3,2", "-4,1"), events.events)
+        assertEquals(listOf<Any?>("0", "4", "5", "8"), List(d.size, d::itemAt))
+    }
+
+    @Test fun noOpRemovalIsNotAMutation() {
+        val events = RecordingCallback()
+        val d = MutableDelegapter(events)
+        d.addAll(strings, listOf("a", "b"))
+        val snapshot = d.snapshot()
+        events.events.clear()
+
+        assertFalse(d.removeAll(listOf("c")))
+        assertFalse(d.retainAll(listOf("a", "b")))
+        assertEquals(emptyList<String>(), events.events)
+        assertEquals(2, snapshot.size)
+    }
+
+}
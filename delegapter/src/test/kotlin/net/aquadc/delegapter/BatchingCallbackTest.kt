@@ -0,0 +1,113 @@
+package net.aquadc.delegapter
+
+import androidx.recyclerview.widget.ListUpdateCallback
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.util.Random
+
+class BatchingCallbackTest {
+
+    @Test fun adjacentEventsAreMerged() {
+        val events = RecordingCallback()
+        val d = MutableDelegapter(events)
+        d.batch {
+            add(strings, "a")
+            add(strings, "b")
+            addAll(strings, listOf("c", "d"), 1)
+        }
+        d.batch {
+            removeAt(2)
+            removeAt(1)
+            removeAt(1)
+        }
+        assertEquals(listOf("+0,4", "-1,3"), events.events)
+    }
+
+    @Test fun changesOfInsertedItemsAreSwallowed() {
+        val events = RecordingCallback()
+        val d = MutableDelegapter(events)
+        d.addAll(strings, listOf("a", "b"))
+        events.events.clear()
+        d.batch {
+            add(strings, "c", 1)
+            add(strings, "d", 2)
+            set(strings, "C", 1)
+            removeAt(2)
+        }
+        assertEquals(listOf("+1,1"), events.events)
+        assertEquals(listOf<Any?>("a", "C", "b"), List(d.size, d::itemAt))
+    }
+
+    @Test fun fullRebindCoversPayloadChanges() {
+        val events = RecordingCallback()
+        val batching = BatchingCallback(events)
+        batching.onChanged(2, 4, null)
+        batching.onChanged(3, 1, "p")
+        batching.onChanged(6, 1, null)
+        batching.onChanged(0, 2, null)
+        batching.onChanged(7, 1, "p")
+        batching.onChanged(8, 1, "p")
+        batching.dispatchLastEvent()
+        assertEquals(listOf("~0,7:null", "~7,2:p"), events.events)
+    }
+
+    @Test fun movesAreNotMerged() {
+        val events = RecordingCallback()
+        val batching = BatchingCallback(events)
+        batching.onInserted(0, 1)
+        batching.onMoved(0, 1)
+        batching.onMoved(1, 2)
+        batching.onRemoved(2, 1)
+        batching.dispatchLastEvent()
+        assertEquals(listOf("+0,1", ">0,1", ">1,2", "-2,1"), events.events)
+    }
+
+    @Test fun randomEventsHaveSameEffect() {
+        val random = Random(19)
+        repeat(500) {
+            val size = random.nextInt(20)
+            val direct = Model(size)
+            val batched = Model(size)
+            val batching = BatchingCallback(batched)
+            repeat(random.nextInt(30)) {
+                val n = direct.items.size
+                when (random.nextInt(if (n == 0) 1 else 4)) {
+                    0 -> random.nextInt(n + 1).let { p -> (1 + random.nextInt(3)).let { c ->
+                        direct.onInserted(p, c); batching.onInserted(p, c)
+                    } }
+                    1 -> random.nextInt(n).let { p -> (1 + random.nextInt(minOf(3, n - p))).let { c ->
+                        direct.onRemoved(p, c); batching.onRemoved(p, c)
+                    } }
+                    2 -> if (n > 1) random.nextInt(n).let { f -> random.nextInt(n).let { t ->
+                        direct.onMoved(f, t); batching.onMoved(f, t)
+                    } }
+                    3 -> random.nextInt(n).let { p -> (1 + random.nextInt(minOf(3, n - p))).let { c ->
+                        val payload = arrayOf(null, "x", "y")[random.nextInt(3)]
+                        direct.onChanged(p, c, payload); batching.onChanged(p, c, payload)
+                    } }
+                }
+            }
+            batching.dispatchLastEvent()
+            assertEquals(direct.items, batched.items)
+            assertEquals(direct.changed, batched.changed)
+        }
+    }
+
+    /**
+     * Items are their initial positions, or `-1` if inserted.
+     * Only changes of initial items are tracked, inserted ones will be bound anyway.
+     */
+    private class Model(size: Int) : ListUpdateCallback {
+        val items = MutableList(size) { it }
+        val changed = HashSet<Int>()
+        override fun onInserted(position: Int, count: Int) { items.addAll(position, List(count) { -1 }) }
+        override fun onRemoved(position: Int, count: Int) {
+            items.subList(position, position + count).apply { changed.removeAll(this) }.clear()
+        }
+        override fun onMoved(fromPosition: Int, toPosition: Int) { items.add(toPosition, items.removeAt(fromPosition)) }
+        override fun onChanged(position: Int, count: Int, payload: Any?) {
+            for (i in position until position + count) if (items[i] >= 0) changed += items[i]
+        }
+    }
+
+}
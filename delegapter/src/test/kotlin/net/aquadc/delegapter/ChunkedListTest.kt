@@ -0,0 +1,98 @@
+package net.aquadc.delegapter
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.util.Random
+
+class ChunkedListTest {
+
+    @Test fun randomEditsMatchArrayList() {
+        val random = Random(19)
+        val list = ChunkedList<Int>(-1)
+        val model = ArrayList<Int>()
+        var next = 0
+        repeat(3000) {
+            edit(random, list, model) { next++ }
+            assertSame(model, list, random)
+        }
+    }
+
+    @Test fun copiesShareNothingObservable() {
+        val random = Random(42)
+        val list = ChunkedList<Int>(-1)
+        val model = ArrayList<Int>()
+        list.addAll(0, List(2000) { it })
+        model.addAll(list)
+        var next = 2000
+        repeat(20) {
+            val copy = list.cowCopy()
+            val copyModel = ArrayList(model)
+            repeat(50) {
+                edit(random, list, model) { next++ }
+                edit(random, copy, copyModel) { next++ }
+            }
+            assertSame(model, list, random)
+            assertSame(copyModel, copy, random)
+        }
+    }
+
+    @Test fun insertionsIntoFullBlocksSplitThem() {
+        val list = ChunkedList<Int>(-1)
+        list.addAll(0, List(1024) { it })
+        repeat(512) { list.add(300, -it) }
+        assertEquals(1536, list.size)
+        assertEquals(299, list[299])
+        assertEquals(-511, list[300])
+        assertEquals(0, list[811])
+        assertEquals(300, list[812])
+        assertEquals(1023, list[1535])
+    }
+
+    private inline fun edit(random: Random, list: ChunkedList<Int>, model: ArrayList<Int>, next: () -> Int) {
+        val size = model.size
+        when (random.nextInt(if (size > 4000) 4 else 6)) {
+            0 -> if (size > 0) {
+                val from = random.nextInt(size)
+                val to = from + random.nextInt(minOf(600, size - from) + 1)
+                list.removeRange(from, to)
+                model.subList(from, to).clear()
+            }
+            1 -> if (size > 0) {
+                val at = random.nextInt(size)
+                assertEquals(model.removeAt(at), list.removeAt(at))
+            }
+            2 -> if (size > 0) {
+                val at = random.nextInt(size)
+                val e = next()
+                assertEquals(model.set(at, e), list.set(at, e))
+            }
+            3 -> if (random.nextInt(50) == 0) {
+                list.clear()
+                model.clear()
+            }
+            4 -> {
+                val at = random.nextInt(size + 1)
+                val e = next()
+                list.add(at, e)
+                model.add(at, e)
+            }
+            5 -> {
+                val at = random.nextInt(size + 1)
+                val elements = List(random.nextInt(700)) { next() }
+                list.addAll(at, elements)
+                model.addAll(at, elements)
+            }
+        }
+    }
+
+    private fun assertSame(expected: List<Int>, actual: ChunkedList<Int>, random: Random) {
+        assertEquals(expected.size, actual.size)
+        if (expected.isEmpty()) return
+        repeat(10) { // random access first, block starts are recomputed lazily
+            val i = random.nextInt(expected.size)
+            assertEquals(expected[i], actual[i])
+        }
+        assertEquals(expected, actual)
+    }
+
+}
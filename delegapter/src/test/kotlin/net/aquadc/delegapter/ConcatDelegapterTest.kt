@@ -0,0 +1,154 @@
+package net.aquadc.delegapter
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertSame
+import org.junit.Test
+import java.util.Random
+
+class ConcatDelegapterTest {
+
+    private val events = RecordingCallback()
+    private val concat = ConcatDelegapter(events)
+
+    @Test fun positionsAreMappedAcrossSections() {
+        concat.addSection().addAll(strings, listOf("a", "b"))
+        concat.addSection() // empty
+        concat.addSection().addAll(strings, listOf("c", "d", "e"))
+        assertEquals(listOf("+0,2", "+2,3"), events.events)
+
+        assertEquals(5, concat.size)
+        assertEquals(listOf<Any?>("a", "b", "c", "d", "e"), data())
+        assertEquals(listOf(0, 0, 2, 2, 2), List(concat.size, concat::sectionAt)) // empty section is skipped
+        assertEquals(listOf(0, 2, 2, 5), List(concat.sectionCount + 1, concat::offsetOf))
+
+        events.events.clear()
+        concat.section(1).add(strings, "x")
+        concat.section(2).removeAt(1)
+        concat.section(0).set(strings, "B", 1)
+        assertEquals(listOf("+2,1", "-4,1", "~1,1:null"), events.events)
+        assertEquals(listOf<Any?>("a", "B", "x", "c", "e"), data())
+        assertSame(concat.registry.forViewType(concat.viewTypeAt(0)), strings)
+    }
+
+    @Test fun removedSectionIsDetached() {
+        concat.addSection().addAll(strings, listOf("a", "b"))
+        val removed = concat.addSection().apply { addAll(strings, listOf("c", "d")) }
+        concat.addSection().add(strings, "e")
+        events.events.clear()
+
+        concat.removeSection(1)
+        assertEquals(listOf("-2,2"), events.events)
+        assertEquals(listOf<Any?>("a", "b", "e"), data())
+
+        removed.add(strings, "x")
+        concat.section(1).add(strings, "f")
+        assertEquals(listOf("-2,2", "+3,1"), events.events)
+        assertEquals(listOf<Any?>("a", "b", "e", "f"), data())
+    }
+
+    @Test fun batchInsideSectionIsTranslated() {
+        concat.addSection().add(strings, "a")
+        val section = concat.addSection()
+        events.events.clear()
+        section.batch {
+            add(strings, "b")
+            add(strings, "c")
+            add(strings, "d", 0)
+            removeAt(1)
+        }
+        assertEquals(listOf("+1,2"), events.events)
+        assertEquals(listOf<Any?>("a", "d", "c"), data())
+    }
+
+    @Test fun collapseAndExpandNotifyOnce() {
+        concat.addSection().addAll(strings, listOf("a", "b"))
+        concat.addSection().addAll(strings, listOf("c", "d", "e"))
+        concat.addSection() // empty
+        concat.addSection().add(strings, "f")
+        events.events.clear()
+
+        concat.setCollapsed(1, true)
+        concat.setCollapsed(1, true) // no-op
+        concat.setCollapsed(2, true) // empty, nothing to hide
+        assertEquals(listOf("-2,3"), events.events)
+        assertEquals(listOf<Any?>("a", "b", "f"), data())
+        assertEquals(listOf(0, 0, 3), List(concat.size, concat::sectionAt))
+        assertEquals(listOf(0, 2, 2, 2, 3), List(concat.sectionCount + 1, concat::offsetOf))
+
+        concat.setCollapsed(1, false)
+        assertEquals(listOf("-2,3", "+2,3"), events.events)
+        assertEquals(listOf<Any?>("a", "b", "c", "d", "e", "f"), data())
+    }
+
+    @Test fun collapsedSectionIsEditedSilently() {
+        concat.addSection().add(strings, "a")
+        val body = concat.addSection().apply { addAll(strings, listOf("b", "c")) }
+        concat.addSection().add(strings, "d")
+        concat.setCollapsed(1, true)
+        events.events.clear()
+
+        body.add(strings, "x", 0)
+        body.removeAt(2)
+        body.set(strings, "B", 1)
+        body.move(0, 1)
+        concat.section(2).add(strings, "e")
+        assertEquals(listOf("+2,1"), events.events) // only the visible section
+        assertEquals(listOf<Any?>("a", "d", "e"), data())
+
+        concat.setCollapsed(1, false)
+        assertEquals(listOf("+2,1", "+1,2"), events.events)
+        assertEquals(listOf<Any?>("a", "B", "x", "d", "e"), data())
+
+        concat.setCollapsed(1, true)
+        events.events.clear()
+        concat.removeSection(1) // already hidden
+        assertEquals(listOf<String>(), events.events)
+        assertEquals(listOf<Any?>("a", "d", "e"), data())
+    }
+
+    @Test fun randomEditsMatchModel() {
+        val random = Random(19)
+        val model = ArrayList<Any?>()
+        var next = 0
+        repeat(2000) {
+            val sections = concat.sectionCount
+            when (if (sections == 0) 0 else random.nextInt(6)) {
+                0 -> concat.addSection(random.nextInt(sections + 1))
+                1 -> if (sections > 1) concat.removeSection(random.nextInt(sections))
+                2, 3 -> concat.section(random.nextInt(sections)).let { s ->
+                    s.add(strings, "${next++}", random.nextInt(s.size + 1))
+                }
+                4 -> concat.section(random.nextInt(sections)).let { s ->
+                    if (s.size > 0) s.removeAt(random.nextInt(s.size))
+                }
+                5 -> concat.section(random.nextInt(sections)).let { s ->
+                    if (s.size > 0) s.set(strings, "${next++}", random.nextInt(s.size))
+                }
+            }
+            replay(model)
+            assertEquals(model, data())
+            var offset = 0
+            for (s in 0 until concat.sectionCount) {
+                assertEquals(offset, concat.offsetOf(s))
+                offset += concat.section(s).size
+            }
+        }
+    }
+
+    private fun data(): List<Any?> = List(concat.size, concat::itemAt)
+
+    // each operation above emits a single event, thus inserted and changed items are at their final positions
+    private fun replay(model: MutableList<Any?>) {
+        for (event in events.events) {
+            val (a, b) = event.substring(1).substringBefore(':').split(',').map(String::toInt)
+            when (event[0]) {
+                '-' -> model.subList(a, a + b).clear()
+                '+' -> model.addAll(a, List(b) { concat.itemAt(a + it) })
+                '>' -> model.add(b, model.removeAt(a))
+                '~' -> for (i in a until a + b) model[i] = concat.itemAt(i)
+            }
+        }
+        events.events.clear()
+    }
+
+}
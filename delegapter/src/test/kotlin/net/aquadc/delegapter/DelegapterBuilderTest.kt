@@ -0,0 +1,63 @@
+package net.aquadc.delegapter
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class DelegapterBuilderTest {
+
+    @Test fun storageIsAdoptedWithoutCopying() {
+        for (chunked in booleanArrayOf(false, true)) {
+            val builder = DelegapterBuilder(chunkedStorage = chunked).apply {
+                addAll(strings, listOf("a", "b"))
+                add(numbers, 5L)
+            }
+            val items = storageOf(builder)
+            val longs = builder.longs
+
+            val events = RecordingCallback()
+            val d = MutableDelegapter(events)
+            d.addAll(builder)
+            assertSame(items, storageOf(d))
+            assertSame(longs, d.longs)
+            assertEquals(listOf("+0,3"), events.events)
+            assertEquals(listOf<Any?>("a", "b", 5L), List(d.size, d::itemAt))
+            assertEquals(0, builder.size)
+        }
+    }
+
+    @Test fun appendingCopiesIntoExistingStorage() {
+        val d = MutableDelegapter(NullListUpdateCallback).apply { add(strings, "a") }
+        val items = storageOf(d)
+        d.addAll(DelegapterBuilder().apply { add(numbers, 1L); add(strings, "b") })
+        assertSame(items, storageOf(d))
+        assertEquals(listOf<Any?>("a", 1L, "b"), List(d.size, d::itemAt))
+        assertEquals(d.viewTypeAt(0), d.viewTypeAt(2))
+    }
+
+    @Test fun handedOverBuilderIsRejected() {
+        val adopted = DelegapterBuilder().apply { add(strings, "a") }
+        MutableDelegapter(NullListUpdateCallback).replaceAll(adopted)
+        val copied = DelegapterBuilder().apply { add(strings, "b") }
+        MutableDelegapter(NullListUpdateCallback).apply { add(strings, "a") }.addAll(copied)
+
+        for (builder in arrayOf(adopted, copied)) {
+            assertRejected { builder.add(strings, "c") }
+            assertRejected { builder.add(numbers, 1L) }
+            assertRejected { builder.addAll(strings, listOf("c")) }
+            assertRejected { builder.addAll(numbers, longArrayOf(1L)) }
+            assertRejected { MutableDelegapter(NullListUpdateCallback).addAll(builder) }
+            assertRejected { MutableDelegapter(NullListUpdateCallback).replaceAll(builder) }
+        }
+    }
+
+    private fun assertRejected(block: () -> Unit) {
+        val e = try { block(); null } catch (e: IllegalStateException) { e }
+        assertTrue(e != null)
+    }
+
+    private fun storageOf(d: Delegapter): Any? =
+        Delegapter::class.java.getDeclaredField("items").apply { isAccessible = true }.get(d)
+
+}
@@ -0,0 +1,158 @@
+package net.aquadc.delegapter
+
+import androidx.recyclerview.widget.DiffUtil
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.Collections
+import java.util.Random
+
+class KeyedDiffTest {
+
+    // "key:value" items, payload is the new item
+    private val entries = strings.diff(keyOf = { it.substringBefore(':') }, getChangePayload = { _, new -> new })
+
+    @Test fun randomEditsAreReproduced() {
+        val random = Random(19)
+        repeat(300) {
+            val old = List(random.nextInt(60)) { "$it:0" }
+            val new = ArrayList(old)
+            repeat(random.nextInt(4)) { if (new.isNotEmpty()) new.removeAt(random.nextInt(new.size)) }
+            repeat(random.nextInt(4)) { new.add(random.nextInt(new.size + 1), "n$it:0") }
+            repeat(random.nextInt(4)) {
+                if (new.size > 1) Collections.swap(new, random.nextInt(new.size), random.nextInt(new.size))
+            }
+            repeat(random.nextInt(4)) {
+                if (new.isNotEmpty()) random.nextInt(new.size).let { i -> new[i] = new[i].substringBefore(':') + ":1" }
+            }
+            if (random.nextInt(10) == 0) new.reverse()
+
+            val moves = assertReproduced(old, new, detectMoves = true)
+            assertTrue(moves <= new.size)
+            assertEquals(0, assertReproduced(old, new, detectMoves = false))
+        }
+    }
+
+    @Test fun singleMoveIsSingleEvent() {
+        val old = List(100) { "$it:0" }
+        val new = ArrayList(old).apply { add(80, removeAt(10)) }
+        val events = RecordingCallback()
+        diff(old, new, detectMoves = true)!!.dispatchUpdatesTo(events)
+        assertEquals(listOf(">10,80"), events.events)
+    }
+
+    @Test fun reversalKeepsOneItemInPlace() {
+        val old = List(1000) { "$it:0" }
+        assertEquals(999, assertReproduced(old, old.reversed(), detectMoves = true))
+    }
+
+    @Test fun changesCarryPayloads() {
+        val events = RecordingCallback()
+        diff(listOf("a:0", "b:0", "c:0"), listOf("a:1", "b:1", "c:0"), detectMoves = true)!!.dispatchUpdatesTo(events)
+        assertEquals(listOf("~0,1:a:1", "~1,1:b:1"), events.events)
+    }
+
+    @Test fun ambiguousOrMissingKeysFallBack() {
+        assertNull(diff(listOf("a:0", "a:1"), listOf("a:0"), detectMoves = true))
+        assertNull(diff(listOf("a:0"), listOf("a:0", "a:1"), detectMoves = true))
+
+        val old = MutableDelegapter(NullListUpdateCallback).apply { add(texts, "a") }
+        val new = MutableDelegapter(NullListUpdateCallback).apply { add(texts, "a") }
+        assertNull(KeyedDiff.calculate(old, new, 0, Callback(old, new), true))
+    }
+
+    @Test fun equalDelegatesMatch() {
+        val sameEntries = strings.diff(keyOf = { it.substringBefore(':') })
+        val old = MutableDelegapter(NullListUpdateCallback).apply { add(entries, "a:0"); add(entries, "b:0") }
+        val new = MutableDelegapter(NullListUpdateCallback).apply { add(sameEntries, "b:0"); add(sameEntries, "a:0") }
+        val events = RecordingCallback()
+        KeyedDiff.calculate(old, new, 0, Callback(old, new), true)!!.dispatchUpdatesTo(events)
+        assertEquals(1, events.events.size)
+        assertTrue(events.events[0].startsWith(">"))
+    }
+
+    @Test fun sameKeyOfDifferentDelegatesDoesNotMatch() {
+        val others = { _: android.view.ViewGroup -> throw UnsupportedOperationException() }
+            .diff<String>(keyOf = { it.substringBefore(':') })
+        val old = MutableDelegapter(NullListUpdateCallback).apply { add(entries, "a:0") }
+        val new = MutableDelegapter(NullListUpdateCallback).apply { add(others, "a:0") }
+        val events = RecordingCallback()
+        KeyedDiff.calculate(old, new, 0, Callback(old, new), true)!!.dispatchUpdatesTo(events)
+        assertEquals(listOf("-0,1", "+0,1"), events.events)
+    }
+
+    @Test fun replaceTakesKeyedPath() {
+        val events = RecordingCallback()
+        val d = MutableDelegapter(events)
+        val old = List(1000) { "$it:0" }
+        d.addAll(entries, old)
+        events.events.clear()
+        var path: DiffPath? = null
+        d.diffListener = DiffListener { path = it.path }
+
+        val new = old.shuffled(Random(42))
+        d.replace { addAll(entries, new) }
+        assertEquals(DiffPath.Keyed, path)
+        assertEquals(new, apply(old, new, events.events))
+    }
+
+    @Test fun pathIsRecordedWithoutListener() {
+        val d = MutableDelegapter(NullListUpdateCallback)
+        assertNull(d.lastDiffPath)
+        d.replace { addAll(entries, listOf("a:0", "b:0")) }
+        assertEquals(DiffPath.Trimmed, d.lastDiffPath)
+        d.replace { addAll(entries, listOf("b:0", "a:1")) }
+        assertEquals(DiffPath.Keyed, d.lastDiffPath)
+    }
+
+    /**
+     * Diffs [old] and [new], replays events on [old], and checks that the result equals to [new].
+     * @return number of moves
+     */
+    private fun assertReproduced(old: List<String>, new: List<String>, detectMoves: Boolean): Int {
+        val events = RecordingCallback()
+        diff(old, new, detectMoves)!!.dispatchUpdatesTo(events)
+        assertEquals(new, apply(old, new, events.events))
+        return events.events.count { it.startsWith(">") }
+    }
+
+    private fun diff(old: List<String>, new: List<String>, detectMoves: Boolean): KeyedDiff? {
+        val o = MutableDelegapter(NullListUpdateCallback).apply { addAll(entries, old) }
+        val n = MutableDelegapter(NullListUpdateCallback).apply { addAll(entries, new) }
+        return KeyedDiff.calculate(o, n, 0, Callback(o, n), detectMoves)
+    }
+
+    // changes come last and refer to new positions, payload is the new item
+    private fun apply(old: List<String>, new: List<String>, events: List<String>): List<String> {
+        val model = ArrayList(old)
+        for (event in events) {
+            val (a, b) = event.substring(1).substringBefore(':').split(',').map(String::toInt)
+            when (event[0]) {
+                '-' -> model.subList(a, a + b).clear()
+                '+' -> model.addAll(a, new.subList(a, a + b))
+                '>' -> model.add(b, model.removeAt(a))
+                '~' -> {
+                    assertEquals(1, b)
+                    assertEquals(new[a], event.substringAfter(':'))
+                    model[a] = new[a]
+                }
+            }
+        }
+        return model
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    private class Callback(private val old: Delegapter, private val new: Delegapter) : DiffUtil.Callback() {
+        override fun getOldListSize(): Int = old.size
+        override fun getNewListSize(): Int = new.size
+        override fun areItemsTheSame(oldItemPosition: Int, newItemPosition: Int): Boolean =
+            throw AssertionError("keys are enough")
+        override fun areContentsTheSame(oldItemPosition: Int, newItemPosition: Int): Boolean =
+            old.itemAt(oldItemPosition) == new.itemAt(newItemPosition)
+        override fun getChangePayload(oldItemPosition: Int, newItemPosition: Int): Any? =
+            (new.delegateAt(newItemPosition) as DiffDelegate<Any?>)
+                .getChangePayload(old.itemAt(oldItemPosition)!!, new.itemAt(newItemPosition)!!)
+    }
+
+}
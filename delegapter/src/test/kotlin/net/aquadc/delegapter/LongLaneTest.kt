@@ -0,0 +1,128 @@
+package net.aquadc.delegapter
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.Random
+
+class LongLaneTest {
+
+    private fun filled(indexed: Boolean, byIdentity: Boolean = false) = MutableDelegapter(NullListUpdateCallback).apply {
+        if (indexed) indexItems(byIdentity = byIdentity)
+        add(strings, "a")
+        add(numbers, 5L)
+        addAll(numbers, longArrayOf(7L, 9L))
+        add(strings, "b")
+    }
+
+    @Test fun lookupByValue() {
+        for (indexed in booleanArrayOf(false, true)) for (byIdentity in booleanArrayOf(false, true)) {
+            val d = filled(indexed, byIdentity)
+            assertTrue(d.contains(5L))
+            assertFalse(d.contains(6L))
+            assertTrue(d.containsAll(listOf(5L, 9L, "a")))
+            assertFalse(d.containsAll(listOf(5L, 6L)))
+            assertEquals(2, d.indexOf(numbers, 7L))
+            assertEquals(-1, d.indexOf(numbers, 8L))
+            assertEquals(-1, d.indexOf(numbers, 7L, startIndex = 3))
+        }
+    }
+
+    @Test fun removeByValue() {
+        for (indexed in booleanArrayOf(false, true)) {
+            val d = filled(indexed)
+            assertTrue(d.remove(5L))
+            assertFalse(d.remove(5L))
+            assertFalse(d.contains(5L))
+            assertEquals(7L, d.longAt(1))
+            assertTrue(d.removeAll(listOf(9L)))
+            assertEquals(listOf<Any?>("a", 7L, "b"), List(d.size, d::itemAt))
+        }
+    }
+
+    @Test fun indexFollowsOverwrites() {
+        val d = filled(indexed = true)
+        d.set(numbers, 6L, 1)
+        assertFalse(d.contains(5L))
+        assertTrue(d.contains(6L))
+        d.set(strings, "c", 2)
+        assertFalse(d.contains(7L))
+        assertTrue(d.contains("c"))
+        d.setAll(numbers, listOf(1L, 2L), 0)
+        assertFalse(d.contains("a"))
+        assertFalse(d.contains(6L))
+        assertTrue(d.contains(2L))
+        d.removeRange(0, 2)
+        assertFalse(d.contains(1L))
+        assertEquals(listOf<Any?>("c", 9L, "b"), List(d.size, d::itemAt))
+    }
+
+    @Test fun chunkedLaneMatchesArrayList() {
+        val random = Random(19)
+        var lane = LongList(-1)
+        var model = ArrayList<Long>()
+        var copy = lane.copy()
+        var copyModel = ArrayList(model)
+        var next = 0L
+        repeat(3000) {
+            val size = model.size
+            when (random.nextInt(7)) {
+                0, 1 -> {
+                    val at = random.nextInt(size + 1)
+                    val values = LongArray(1 + random.nextInt(if (random.nextBoolean()) 4 else 600)) { next++ }
+                    lane.insert(at, values.size)
+                    lane.setAll(at, values)
+                    model.addAll(at, values.asList())
+                }
+                2 -> if (size > 0) {
+                    val from = random.nextInt(size)
+                    val to = from + random.nextInt(minOf(400, size - from) + 1)
+                    lane.removeRange(from, to)
+                    model.subList(from, to).clear()
+                }
+                3 -> if (size > 0) {
+                    val count = random.nextInt(minOf(size, 500) + 1)
+                    val from = random.nextInt(size - count + 1)
+                    val to = random.nextInt(size - count + 1)
+                    lane.move(from, count, to)
+                    val moving = ArrayList(model.subList(from, from + count))
+                    model.subList(from, from + count).clear()
+                    model.addAll(to, moving)
+                }
+                4 -> if (size > 0) {
+                    val ranges = RemovedRanges()
+                    var p = random.nextInt(size)
+                    while (p < size) {
+                        repeat(1 + random.nextInt(300)) { if (p < size) ranges.add(p++) }
+                        p += 1 + random.nextInt(300)
+                    }
+                    lane.removeRanges(ranges)
+                    for (q in ranges.count - 1 downTo 0) model.subList(ranges.ranges[2 * q], ranges.ranges[2 * q + 1]).clear()
+                }
+                5 -> if (size > 0) {
+                    val at = random.nextInt(size)
+                    lane[at] = next
+                    model[at] = next++
+                }
+                6 -> { // let the copy diverge, then continue with either side
+                    assertLane(copyModel, copy)
+                    copy = lane.copy()
+                    copyModel = ArrayList(model)
+                    if (random.nextBoolean()) {
+                        lane = copy.also { copy = lane }
+                        model = copyModel.also { copyModel = model }
+                    }
+                }
+            }
+            assertLane(model, lane)
+        }
+        assertLane(copyModel, copy)
+    }
+
+    private fun assertLane(expected: List<Long>, actual: LongList) {
+        assertEquals(expected.size, actual.size)
+        assertEquals(expected, List(actual.size) { actual[it] })
+    }
+
+}
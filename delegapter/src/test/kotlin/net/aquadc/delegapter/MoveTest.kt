@@ -0,0 +1,100 @@
+package net.aquadc.delegapter
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.util.Random
+
+class MoveTest {
+
+    private val events = RecordingCallback()
+    private val d = MutableDelegapter(events)
+    private val initial = listOf<Any?>("a", "b", 1L, 2L, "c", "d", "e")
+
+    private fun filled() = d.apply {
+        addAll(strings, listOf("a", "b"))
+        addAll(numbers, longArrayOf(1L, 2L))
+        addAll(strings, listOf("c", "d", "e"))
+        events.events.clear()
+    }
+
+    @Test fun moveRangeTowardsEnd() {
+        filled().moveRange(1, 3, 4) // b 1 2 after c
+        assertEquals(listOf(">1,6", ">1,6", ">1,6"), events.events)
+        assertMoved()
+        assertEquals(listOf<Any?>("a", "c", "d", "e", "b", 1L, 2L), data())
+    }
+
+    @Test fun moveRangeTowardsStart() {
+        filled().moveRange(4, 2, 1) // c d after a
+        assertEquals(listOf(">4,1", ">5,2"), events.events)
+        assertMoved()
+        assertEquals(listOf<Any?>("a", "c", "d", "b", 1L, 2L, "e"), data())
+    }
+
+    @Test fun overlappingMoveRange() {
+        filled().moveRange(1, 3, 2)
+        assertMoved()
+        assertEquals(listOf<Any?>("a", "c", "b", 1L, 2L, "d", "e"), data())
+
+        events.events.clear()
+        val before = data()
+        d.moveRange(2, 3, 1)
+        assertMoved(before)
+        assertEquals(listOf<Any?>("a", "b", 1L, 2L, "c", "d", "e"), data())
+    }
+
+    @Test fun singleMoves() {
+        filled().move(0, 6)
+        d.move(6, 0)
+        d.move(2, 3)
+        assertEquals(listOf(">0,6", ">6,0", ">2,3"), events.events)
+        assertMoved()
+        assertEquals(listOf<Any?>("a", "b", 2L, 1L, "c", "d", "e"), data())
+    }
+
+    @Test fun noOpMoves() {
+        filled().moveRange(2, 3, 2)
+        d.moveRange(2, 0, 5)
+        assertEquals(listOf<String>(), events.events)
+        assertEquals(initial, data())
+    }
+
+    @Test fun movesAreNotMergedInBatch() {
+        filled().batch {
+            moveRange(0, 2, 5)
+        }
+        assertEquals(listOf(">0,6", ">0,6"), events.events)
+        assertMoved()
+    }
+
+    @Test fun randomMovesMatchModel() {
+        val random = Random(19)
+        filled()
+        repeat(500) {
+            val before = data()
+            val count = random.nextInt(d.size + 1)
+            val from = random.nextInt(d.size - count + 1)
+            val to = random.nextInt(d.size - count + 1)
+            d.moveRange(from, count, to)
+            assertMoved(before)
+            assertEquals(before.subList(from, from + count), data().subList(to, to + count))
+            events.events.clear()
+        }
+    }
+
+    private fun data(): List<Any?> = List(d.size, d::itemAt)
+
+    // replays events on a model and checks that delegates moved along with items
+    private fun assertMoved(before: List<Any?> = initial) {
+        val model = ArrayList(before)
+        for (event in events.events) {
+            assertEquals('>', event[0])
+            val (from, to) = event.substring(1).split(',').map(String::toInt)
+            model.add(to, model.removeAt(from))
+        }
+        assertEquals(model, data())
+        for (i in 0 until d.size)
+            assertEquals(if (d.itemAt(i) is Long) numbers else strings, d.delegateAt(i))
+    }
+
+}
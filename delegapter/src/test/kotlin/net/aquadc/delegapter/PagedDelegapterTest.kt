@@ -0,0 +1,114 @@
+package net.aquadc.delegapter
+
+import android.view.ViewGroup
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+
+class PagedDelegapterTest {
+
+    private val placeholders: Delegate<Nothing?> = { _: ViewGroup -> throw UnsupportedOperationException() }
+    private val events = RecordingCallback()
+    private val requests = ArrayList<String>()
+
+    private fun paged(totalCount: Int, prefetchPages: Int = 0, maxLoadedPages: Int = 8) = PagedDelegapter(
+        MutableDelegapter(events), totalCount, placeholders, pageSize = 10,
+        prefetchPages = prefetchPages, maxLoadedPages = maxLoadedPages,
+    ) { page, position, count -> requests += "$page@$position+$count" }.also { events.events.clear() }
+
+    private fun page(page: Int, count: Int = 10) =
+        MutableDelegapter(NullListUpdateCallback).apply { addAll(strings, List(count) { "${page * 10 + it}" }) }
+
+    @Test fun visiblePagesAreLoaded() {
+        val paged = paged(25, prefetchPages = 1)
+        paged.onVisibleRange(12, 18)
+        assertEquals(listOf("1@10+10", "2@20+5", "0@0+10"), requests) // visible first, then prefetched
+        assertEquals(3, paged.loadedPages)
+
+        paged.setPage(2, page(2, 5))
+        paged.setPage(0, page(0))
+        assertEquals(listOf("~20,5:null", "~0,10:null"), events.events)
+        assertEquals("23", paged.data.itemAt(23))
+        assertNull(paged.data.itemAt(15))
+        assertEquals(placeholders, paged.data.delegateAt(15))
+
+        paged.onVisibleRange(14, 16) // nothing new
+        assertEquals(3, requests.size)
+    }
+
+    @Test fun pageOfWrongSizeIsRejected() {
+        val paged = paged(25)
+        paged.onVisibleRange(0, 0)
+        val e = try { paged.setPage(0, page(0, 9)); null } catch (e: IllegalArgumentException) { e }
+        assertEquals("page 0 must have 10 items, got 9", e?.message)
+    }
+
+    @Test fun leastRecentlyVisiblePageIsEvicted() {
+        val paged = paged(100, maxLoadedPages = 2)
+        paged.onVisibleRange(0, 5)
+        paged.setPage(0, page(0))
+        paged.onVisibleRange(10, 15)
+        paged.setPage(1, page(1))
+        paged.onVisibleRange(0, 5) // page 1 becomes the eldest
+        events.events.clear()
+
+        paged.onVisibleRange(20, 25)
+        assertEquals(listOf("0@0+10", "1@10+10", "2@20+10"), requests)
+        assertEquals(listOf("~10,10:null"), events.events)
+        assertNull(paged.data.itemAt(10))
+        assertEquals("0", paged.data.itemAt(0))
+        assertEquals(2, paged.loadedPages)
+
+        paged.setPage(1, page(1)) // evicted while loading or after, ignored
+        assertNull(paged.data.itemAt(10))
+    }
+
+    @Test fun visiblePagesAreNeverEvicted() {
+        val paged = paged(100, maxLoadedPages = 1)
+        paged.onVisibleRange(5, 25)
+        assertEquals(3, paged.loadedPages)
+        paged.setPage(1, page(1))
+        assertEquals("10", paged.data.itemAt(10))
+    }
+
+    @Test fun growingSendsOnlyInsertion() {
+        val paged = paged(20)
+        paged.onVisibleRange(0, 15)
+        paged.setPage(0, page(0))
+        paged.setPage(1, page(1))
+        events.events.clear()
+
+        paged.totalCount = 30 // pages are complete
+        assertEquals(listOf("+20,10"), events.events)
+        assertEquals("19", paged.data.itemAt(19))
+
+        paged.totalCount = 25 // page 2 shrinks, it's not loaded
+        assertEquals(listOf("+20,10", "-25,5"), events.events)
+
+        paged.totalCount = 15 // page 1 becomes incomplete and gets forgotten
+        assertEquals(listOf("+20,10", "-25,5", "-15,10", "~10,5:null"), events.events)
+        assertEquals(1, paged.loadedPages)
+
+        events.events.clear()
+        paged.setPage(1, page(1, 5)) // ignored, not requested again yet
+        assertEquals(listOf<String>(), events.events)
+        paged.onVisibleRange(10, 14)
+        paged.setPage(1, page(1, 5))
+        paged.totalCount = 18 // loaded incomplete page gets reset, inserted items are just inserted
+        assertEquals(listOf("~10,5:null", "+15,3", "~10,5:null"), events.events)
+    }
+
+    @Test fun invalidationReloadsVisiblePages() {
+        val paged = paged(30)
+        paged.onVisibleRange(0, 15)
+        paged.setPage(0, page(0))
+        paged.setPage(1, page(1))
+        events.events.clear()
+        requests.clear()
+
+        paged.invalidate()
+        assertEquals(listOf("~0,20:null"), events.events)
+        assertEquals(listOf("0@0+10", "1@10+10"), requests)
+    }
+
+}
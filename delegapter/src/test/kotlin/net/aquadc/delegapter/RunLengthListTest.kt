@@ -0,0 +1,137 @@
+package net.aquadc.delegapter
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.util.Random
+
+class RunLengthListTest {
+
+    @Test fun runsSplitAndMerge() {
+        val list = RunLengthList<String>(-1)
+        list.add(0, "a", 3, 0)
+        list.add(3, "b", 2, 1)
+        assertEquals(3, list.runEnd(0))
+
+        list[1] = "b" // a b a b b
+        assertEquals(listOf("a", "b", "a", "b", "b"), list)
+        assertEquals(2, list.runEnd(1))
+        assertEquals(5, list.runEnd(3))
+
+        list.removeAt(2) // a b b b
+        assertEquals(4, list.runEnd(1))
+        assertEquals(1, list.tagAt(3))
+    }
+
+    @Test fun tagsFollowMovedRuns() {
+        val list = RunLengthList<String>(-1)
+        list.add(0, "a", 2, 1)
+        list.add(2, "b", 2, 2)
+        list.move(0, 2, 2)
+        assertEquals(listOf("b", "b", "a", "a"), list)
+        assertEquals(2, list.tagAt(0))
+        assertEquals(1, list.tagAt(3))
+    }
+
+    @Test fun removeRangesMergesNeighbours() {
+        val list = RunLengthList<String>(-1)
+        list.add(0, "a", 2, 0)
+        list.add(2, "b", 2, 1)
+        list.add(4, "a", 2, 0)
+        list.add(6, "c", 1, 2)
+        list.removeRanges(intArrayOf(2, 4, 6, 7), 2)
+        assertEquals(listOf("a", "a", "a", "a"), list)
+        assertEquals(4, list.runEnd(0))
+        assertEquals(0, list.tagAt(3))
+    }
+
+    @Test fun steppedSearchSkipsRuns() {
+        val list = RunLengthList<String>(-1)
+        list.add(0, "a", 5)
+        list.add(5, "b", 5)
+        assertEquals(6, list.indexOf("b", 0, 3))
+        assertEquals(-1, list.indexOf("b", 1, 10))
+        assertEquals(3, list.indexOf("a", 9, -3))
+    }
+
+    @Test fun randomEditsMatchArrayList() {
+        val elements = arrayOf("a", "b", "c")
+        val random = Random(19)
+        val list = RunLengthList<String>(-1)
+        val model = ArrayList<String>()
+        repeat(5000) {
+            val size = model.size
+            when (random.nextInt(6)) {
+                0, 1 -> {
+                    val at = random.nextInt(size + 1)
+                    val e = random.nextInt(elements.size)
+                    val times = 1 + random.nextInt(3)
+                    list.add(at, elements[e], times, e)
+                    repeat(times) { model.add(at, elements[e]) }
+                }
+                2 -> if (size > 0) {
+                    val from = random.nextInt(size)
+                    val to = from + random.nextInt(minOf(4, size - from) + 1)
+                    list.removeRange(from, to)
+                    model.subList(from, to).clear()
+                }
+                3 -> if (size > 0) {
+                    val at = random.nextInt(size)
+                    val e = random.nextInt(elements.size)
+                    list.set(at, elements[e], e)
+                    model[at] = elements[e]
+                }
+                4 -> if (size > 0) {
+                    val count = random.nextInt(size + 1)
+                    val from = random.nextInt(size - count + 1)
+                    val to = random.nextInt(size - count + 1)
+                    list.move(from, count, to)
+                    val moving = ArrayList(model.subList(from, from + count))
+                    model.subList(from, from + count).clear()
+                    model.addAll(to, moving)
+                }
+                5 -> if (size > 0) {
+                    val ranges = IntArray(6)
+                    var count = 0
+                    var p = random.nextInt(size)
+                    while (count < 3 && p < size) {
+                        val end = minOf(size, p + 1 + random.nextInt(3))
+                        ranges[2 * count] = p
+                        ranges[2 * count + 1] = end
+                        count++
+                        p = end + 1 + random.nextInt(3)
+                    }
+                    list.removeRanges(ranges, count)
+                    for (q in count - 1 downTo 0) model.subList(ranges[2 * q], ranges[2 * q + 1]).clear()
+                }
+            }
+            assertRuns(model, list, elements)
+        }
+    }
+
+    @Test fun copyIsIndependent() {
+        val list = RunLengthList<String>(-1)
+        list.add(0, "a", 3, 0)
+        val copy = list.copy()
+        list.add(1, "b", 1, 1)
+        copy.removeAt(0)
+        assertEquals(listOf("a", "b", "a", "a"), list)
+        assertEquals(listOf("a", "a"), copy)
+        assertEquals(2, copy.runEnd(0))
+    }
+
+    // runs are maximal and tagged with element's index
+    private fun assertRuns(expected: List<String>, actual: RunLengthList<String>, elements: Array<String>) {
+        assertEquals(expected, actual)
+        var i = 0
+        while (i < expected.size) {
+            var end = i + 1
+            while (end < expected.size && expected[end] === expected[i]) end++
+            for (j in i until end) {
+                assertEquals(end, actual.runEnd(j))
+                assertEquals(elements.indexOf(expected[i]), actual.tagAt(j))
+            }
+            i = end
+        }
+    }
+
+}
@@ -0,0 +1,134 @@
+package net.aquadc.delegapter
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class SlicedDiffTest {
+
+    private val initial = List(10_000) { it.toString() }
+
+    @Test fun trimmingIsSpreadAcrossFrames() {
+        val events = RecordingCallback()
+        val d = MutableDelegapter(events)
+        d.addAll(texts, initial)
+        events.events.clear()
+        val scheduler = ManualScheduler(step = 1_000L)
+
+        d.replaceSliced(scheduler, frameBudgetNanos = 100_000L) {
+            addAll(texts, initial)
+            add(texts, "x", 5000)
+        }
+        assertTrue(scheduler.frame())
+        assertEquals("5000", d.itemAt(5000)) // nothing applied yet
+        while (scheduler.frame()) {}
+
+        assertTrue(scheduler.frames >= 2)
+        assertEquals(listOf("+5000,1"), events.events)
+        assertEquals(DiffPath.Trimmed, d.lastDiffPath) // recorded without a listener
+        assertEquals("x", d.itemAt(5000))
+        assertEquals(10_001, d.size)
+    }
+
+    @Test fun mutationRestartsComparison() {
+        val events = RecordingCallback()
+        val d = MutableDelegapter(events)
+        d.addAll(texts, initial)
+        val scheduler = ManualScheduler(step = 1_000L)
+
+        d.replaceSliced(scheduler, frameBudgetNanos = 100_000L) {
+            addAll(texts, initial)
+            add(texts, "x")
+        }
+        scheduler.frame()
+        d.removeAt(9999)
+        events.events.clear()
+        while (scheduler.frame()) {}
+
+        assertEquals(listOf("+9999,2"), events.events) // against the mutated state
+        assertEquals(initial + "x", List(d.size, d::itemAt))
+    }
+
+    @Test fun supersededByReplace() {
+        val d = MutableDelegapter(NullListUpdateCallback)
+        d.addAll(texts, initial)
+        val scheduler = ManualScheduler(step = 1_000L)
+
+        d.replaceSliced(scheduler, frameBudgetNanos = 100_000L) { add(texts, "x") }
+        d.cancelPendingReplace()
+        while (scheduler.frame()) {}
+
+        assertEquals(initial, List(d.size, d::itemAt))
+    }
+
+    @Test fun matchingByKeysIsSpreadAcrossFrames() {
+        val keyed = strings.diff(keyOf = { it })
+        val events = RecordingCallback()
+        val d = MutableDelegapter(events)
+        d.addAll(keyed, initial)
+        events.events.clear()
+        var path: DiffPath? = null
+        d.diffListener = DiffListener { path = it.path }
+        val scheduler = ManualScheduler(step = 1_000L)
+
+        val new = initial.reversed().toMutableList().apply { removeAt(5000); add(100, "x") }
+        d.replaceSliced(scheduler, frameBudgetNanos = 100_000L) {
+            addAll(keyed, new)
+        }
+        while (scheduler.frame()) if (path == null) assertEquals(initial, List(d.size, d::itemAt))
+
+        assertTrue(scheduler.frames > 5) // ~50k steps of 5 phases, 6400 per frame
+        assertEquals(DiffPath.Keyed, path)
+        assertEquals(new, List(d.size, d::itemAt))
+        val model = ArrayList<Any?>(initial) // moves and insertions are reported, not a range change
+        for (event in events.events) {
+            val (a, b) = event.substring(1).substringBefore(':').split(',').map(String::toInt)
+            when (event[0]) {
+                '-' -> model.subList(a, a + b).clear()
+                '+' -> model.addAll(a, new.subList(a, a + b))
+                '>' -> model.add(b, model.removeAt(a))
+                else -> throw AssertionError(event)
+            }
+        }
+        assertEquals(new, model)
+    }
+
+    @Test fun mutationRestartsMatching() {
+        val keyed = strings.diff(keyOf = { it })
+        val d = MutableDelegapter(NullListUpdateCallback)
+        d.addAll(keyed, initial)
+        val scheduler = ManualScheduler(step = 1_000L)
+
+        d.replaceSliced(scheduler, frameBudgetNanos = 100_000L) {
+            addAll(keyed, initial.reversed())
+        }
+        repeat(5) { scheduler.frame() }
+        d.removeAt(0)
+        d.add(keyed, "x", 0)
+        while (scheduler.frame()) {}
+
+        assertEquals(initial.reversed(), List(d.size, d::itemAt))
+    }
+
+    @Test fun rangeIsReportedChangedOnlyIfPolicySaysSo() {
+        val events = RecordingCallback()
+        val d = MutableDelegapter(events)
+        d.addAll(texts, initial)
+        events.events.clear()
+        var path: DiffPath? = null
+        d.diffListener = DiffListener { path = it.path }
+        d.diffPolicy = DiffPolicy(maxCost = 0L)
+        val scheduler = ManualScheduler(step = 1_000L)
+
+        d.replaceSliced(scheduler, frameBudgetNanos = 100_000L) {
+            addAll(texts, initial.reversed())
+        }
+        while (scheduler.frame()) {}
+
+        assertEquals(DiffPath.RangeChanged, path)
+        assertEquals(DiffPath.RangeChanged, d.lastDiffPath)
+        assertEquals(listOf("~0,10000:null"), events.events)
+        assertEquals(initial.reversed(), List(d.size, d::itemAt))
+    }
+
+}
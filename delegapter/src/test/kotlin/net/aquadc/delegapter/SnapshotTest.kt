@@ -0,0 +1,29 @@
+package net.aquadc.delegapter
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class SnapshotTest {
+
+    @Test fun snapshotIsNotAffectedByMutations() {
+        for (chunked in booleanArrayOf(false, true)) {
+            val d = MutableDelegapter(NullListUpdateCallback, chunkedStorage = chunked)
+            d.addAll(strings, List(1000) { it.toString() })
+            d.add(numbers, 42L)
+            val snapshot = d.snapshot()
+            d.set(strings, "x", 0)
+            d.removeRange(10, 20)
+            d.set(numbers, 43L, d.size - 1)
+            d.add(strings, "y", 500)
+
+            assertEquals(1001, snapshot.size)
+            assertEquals("0", snapshot.itemAt(0))
+            assertEquals("15", snapshot.itemAt(15))
+            assertEquals(42L, snapshot.longAt(1000))
+            assertEquals("x", d.itemAt(0))
+            assertEquals(43L, d.longAt(d.size - 1))
+            assertEquals(992, d.size)
+        }
+    }
+
+}
@@ -0,0 +1,93 @@
+package net.aquadc.delegapter
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.Random
+
+class SortedDelegapterTest {
+
+    // "key:value" items sorted by key, the same if keys are equal, payload is the new item
+    private val entries = strings.diff(
+        areItemsTheSame = { a, b -> a.substringBefore(':') == b.substringBefore(':') },
+        getChangePayload = { _, new -> new },
+    )
+    private val byKey = SortedDelegapter.DelegateComparator { _, item1, _, item2 ->
+        item1.toString().substringBefore(':').compareTo(item2.toString().substringBefore(':'))
+    }
+
+    private val events = RecordingCallback()
+    private val sorted = SortedDelegapter(MutableDelegapter(events), byKey)
+
+    @Test fun insertsAtSortedPositions() {
+        assertEquals(0, sorted.add(entries, "m:0"))
+        assertEquals(0, sorted.add(entries, "c:0"))
+        assertEquals(2, sorted.add(entries, "x:0"))
+        assertEquals(2, sorted.add(entries, "p:0"))
+        assertEquals(listOf("+0,1", "+0,1", "+2,1", "+2,1"), events.events)
+        assertEquals(listOf("c:0", "m:0", "p:0", "x:0"), data())
+        assertEquals(2, sorted.indexOf(entries, "p:1"))
+        assertEquals(-1, sorted.indexOf(entries, "q:0"))
+    }
+
+    @Test fun sameItemIsReplacedInPlace() {
+        sorted.addAll(entries, listOf("a:0", "b:0", "c:0"))
+        events.events.clear()
+
+        assertEquals(1, sorted.add(entries, "b:0")) // same contents
+        assertEquals(listOf<String>(), events.events)
+        assertEquals(1, sorted.add(entries, "b:1"))
+        assertEquals(listOf("~1,1:b:1"), events.events)
+        assertEquals(listOf("a:0", "b:1", "c:0"), data())
+    }
+
+    @Test fun duplicatesOfOtherDelegatesOrNotSameAreKept() {
+        sorted.add(strings, "b")
+        sorted.add(strings, "a")
+        assertEquals(1, sorted.add(strings, "b")) // equal item of a plain delegate is the same one
+        assertEquals(listOf("+0,1", "+0,1"), events.events)
+
+        assertEquals(1, sorted.add(texts, "b")) // compares equal, but a different delegate
+        assertEquals(listOf("a", "b", "b"), data())
+        assertEquals(texts, sorted.data.delegateAt(1))
+        assertEquals(strings, sorted.data.delegateAt(2))
+
+        val others = strings.diff(areItemsTheSame = { _, _ -> false })
+        assertEquals(1, sorted.add(others, "b:0"))
+        assertEquals(1, sorted.add(others, "b:1")) // compares equal, but not the same
+        assertEquals(listOf("a", "b:1", "b:0", "b", "b"), data())
+        assertTrue(sorted.remove(strings, "b"))
+        assertFalse(sorted.remove(strings, "b"))
+        assertEquals(listOf("a", "b:1", "b:0", "b"), data())
+    }
+
+    @Test fun bulkOperationsAreBatched() {
+        sorted.add(entries, "a:0")
+        events.events.clear()
+        sorted.addAll(entries, listOf("d:0", "b:0", "c:0"))
+        assertEquals(listOf("+1,3"), events.events)
+        sorted.removeAll(entries, listOf("c:0", "b:0", "z:0"))
+        assertEquals(listOf("+1,3", "-1,2"), events.events)
+        assertEquals(listOf("a:0", "d:0"), data())
+    }
+
+    @Test fun randomInsertionsStaySorted() {
+        val random = Random(19)
+        val model = sortedSetOf<Int>()
+        repeat(1000) {
+            val key = random.nextInt(500)
+            val item = "${key.toString().padStart(3, '0')}:0"
+            if (random.nextInt(4) == 0) {
+                assertEquals(model.remove(key), sorted.remove(entries, item))
+            } else {
+                model.add(key)
+                assertEquals(model.headSet(key).size, sorted.add(entries, item))
+            }
+        }
+        assertEquals(model.map { "${it.toString().padStart(3, '0')}:0" }, data())
+    }
+
+    private fun data(): List<Any?> = List(sorted.size, sorted.data::itemAt)
+
+}
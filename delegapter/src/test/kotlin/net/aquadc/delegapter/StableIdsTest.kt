@@ -0,0 +1,51 @@
+package net.aquadc.delegapter
+
+import android.view.ViewGroup
+import androidx.recyclerview.widget.RecyclerView
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Assert.fail
+import org.junit.Test
+
+class StableIdsTest {
+
+    private class Keyed<K : Any>(private val key: (String) -> K?) : DiffDelegate<String>() {
+        override fun invoke(p1: ViewGroup): VH<*, *, String> = throw UnsupportedOperationException()
+        override fun areItemsTheSame(oldItem: String, newItem: String): Boolean = key(oldItem) == key(newItem)
+        override fun areContentsTheSame(oldItem: String, newItem: String): Boolean = oldItem == newItem
+        override fun keyOf(item: String): Any? = key(item)
+    }
+
+    @Test fun idsOfDifferentDelegatesDoNotCollide() {
+        val a = Keyed { it.length }
+        val b = Keyed { it.length.toLong() }
+        val d = MutableDelegapter(NullListUpdateCallback)
+        d.add(a, "x")
+        d.add(b, "y")
+        d.add(a, "zz")
+        val ids = List(d.size, d::itemIdAt)
+        assertEquals(3, ids.toSet().size)
+        assertTrue(ids.none { it == RecyclerView.NO_ID })
+    }
+
+    @Test fun nonNumericKeysGiveNoId() {
+        val d = MutableDelegapter(NullListUpdateCallback)
+        d.add(Keyed { it }, "x")
+        d.add(numbers, 1L)
+        assertEquals(RecyclerView.NO_ID, d.itemIdAt(0))
+        assertEquals(RecyclerView.NO_ID, d.itemIdAt(1))
+    }
+
+    @Test fun idsOutside48BitsAreRejected() {
+        val d = MutableDelegapter(NullListUpdateCallback)
+        d.add(Keyed { -(1L shl 47) }, "x")
+        d.itemIdAt(0)
+        d.add(Keyed { 1L shl 47 }, "y")
+        try {
+            d.itemIdAt(1)
+            fail("expected IllegalStateException")
+        } catch (expected: IllegalStateException) {
+        }
+    }
+
+}
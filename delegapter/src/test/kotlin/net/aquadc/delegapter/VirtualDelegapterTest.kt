@@ -0,0 +1,66 @@
+package net.aquadc.delegapter
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class VirtualDelegapterTest {
+
+    // rows are "version:position", odd ones are bound by texts
+    private class Rows(override val size: Int) : VirtualDelegapter.Source<String> {
+        var version = 0
+        val reads = ArrayList<Int>()
+        override fun get(position: Int): String { reads += position; return "$version:$position" }
+        override fun delegateFor(position: Int, item: String): Delegate<*> = if (position % 2 == 0) strings else texts
+    }
+
+    private val rows = Rows(100)
+    private val registry = MutableDelegapter(NullListUpdateCallback)
+    private val virtual = VirtualDelegapter(rows, registry, cacheSize = 4)
+
+    @Test fun windowStaysCached() {
+        for (pass in 0 until 3) for (p in 10 until 14) assertEquals("0:$p", virtual.itemAt(p))
+        assertEquals(listOf(10, 11, 12, 13), rows.reads)
+        assertEquals(4L, virtual.misses)
+        assertEquals(8L, virtual.hits)
+        assertEquals(texts, virtual.delegateAt(11))
+        assertEquals(registry.forceViewTypeOf(strings), virtual.viewTypeAt(12))
+        assertEquals(registry.forceViewTypeOf(texts), virtual.viewTypeAt(13))
+    }
+
+    @Test fun collidingPositionsEvictEachOther() {
+        assertEquals("0:1", virtual.itemAt(1))
+        assertEquals("0:5", virtual.itemAt(5)) // same slot
+        assertEquals("0:1", virtual.itemAt(1))
+        assertEquals(texts, virtual.delegateAt(9)) // delegate and viewType are replaced along with the item
+        assertEquals(registry.forceViewTypeOf(texts), virtual.viewTypeAt(9))
+        assertEquals(strings, virtual.delegateAt(2)) // other slots are not affected
+        assertEquals(listOf(1, 5, 1, 9, 2), rows.reads)
+        assertEquals(1L, virtual.hits) // viewTypeAt(9)
+
+        virtual.resetStats()
+        assertTrue(virtual.hitRate.isNaN())
+        virtual.itemAt(9)
+        virtual.itemAt(13)
+        assertEquals(0.5f, virtual.hitRate)
+    }
+
+    @Test fun invalidationDropsCachedRows() {
+        for (p in 0 until 4) virtual.itemAt(p)
+        rows.version = 1
+        assertEquals("0:2", virtual.itemAt(2)) // stale until invalidated
+
+        virtual.invalidate()
+        for (p in 0 until 4) assertEquals("1:$p", virtual.itemAt(p))
+        assertEquals(listOf(0, 1, 2, 3, 0, 1, 2, 3), rows.reads)
+
+        rows.reads.clear()
+        virtual.source = Rows(3)
+        assertEquals(3, virtual.size)
+        assertEquals("0:2", virtual.itemAt(2))
+        assertEquals(listOf<Int>(), rows.reads) // read from the new source
+        val e = try { virtual.itemAt(3); null } catch (e: IndexOutOfBoundsException) { e }
+        assertEquals("3 ∉ [0, 3)", e?.message)
+    }
+
+}
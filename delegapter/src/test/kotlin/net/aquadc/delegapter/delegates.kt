@@ -0,0 +1,47 @@
+package net.aquadc.delegapter
+
+import android.view.ViewGroup
+import androidx.recyclerview.widget.ListUpdateCallback
+
+// delegates which are never asked to create views in JVM tests
+
+internal val strings: Delegate<String> = { _: ViewGroup -> throw UnsupportedOperationException() }
+
+internal val numbers: LongDelegate = object : LongDelegate() {
+    override fun invoke(p1: ViewGroup): LongVH<*, *> = throw UnsupportedOperationException()
+}
+
+/**
+ * Records events as strings like `+0,2`, `-1,1`, `>3,0`, `~2,1:payload`.
+ */
+internal class RecordingCallback : ListUpdateCallback {
+    val events = ArrayList<String>()
+    override fun onInserted(position: Int, count: Int) { events += "+$position,$count" }
+    override fun onRemoved(position: Int, count: Int) { events += "-$position,$count" }
+    override fun onMoved(fromPosition: Int, toPosition: Int) { events += ">$fromPosition,$toPosition" }
+    override fun onChanged(position: Int, count: Int, payload: Any?) { events += "~$position,$count:$payload" }
+}
+
+internal val texts: DiffDelegate<String> = strings.diff(areItemsTheSame = { a, b -> a == b })
+
+/**
+ * Runs frame callbacks on demand, each [nanoTime] call advances the clock by [step].
+ */
+internal class ManualScheduler(private val step: Long) : FrameScheduler {
+    private var now = 0L
+    private val callbacks = ArrayList<() -> Unit>()
+    var frames = 0
+        private set
+
+    override fun postFrameCallback(callback: () -> Unit) { callbacks += callback }
+    override fun nanoTime(): Long { now += step; return now }
+
+    fun frame(): Boolean {
+        if (callbacks.isEmpty()) return false
+        val pending = ArrayList(callbacks)
+        callbacks.clear()
+        frames++
+        pending.forEach { it() }
+        return true
+    }
+}